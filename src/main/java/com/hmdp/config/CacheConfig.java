@@ -0,0 +1,28 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheConfig {
+    @Value("${hmdp.cache.codec:binary}")
+    private String codec;
+    @Value("${hmdp.cache.compress-threshold:512}")
+    private int compressThreshold;
+
+    /**
+     * CacheClient使用的缓存编解码器
+     * 二进制编解码器可以读取JSON格式的旧数据，切换时不需要清空缓存
+     */
+    @Bean
+    public CacheCodec cacheCodec() {
+        if ("json".equalsIgnoreCase(codec)) {
+            return new JsonCacheCodec();
+        }
+        return new BinaryCacheCodec(compressThreshold);
+    }
+}
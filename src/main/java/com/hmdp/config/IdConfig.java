@@ -0,0 +1,29 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+@Configuration
+public class IdConfig {
+    @Value("${hmdp.id.strategy:segment}")
+    private String strategy;
+    @Value("${hmdp.id.segment-step:1000}")
+    private long segmentStep;
+
+    /**
+     * 全局ID生成器：segment（默认，Redis号段）或 snowflake（本地生成，workerId从Redis租用）
+     * 两种方式生成的ID格式兼容、互不重复，可以直接切换
+     */
+    @Bean
+    public IdGenerator idGenerator(StringRedisTemplate stringRedisTemplate) {
+        if ("snowflake".equalsIgnoreCase(strategy)) {
+            return new SnowflakeIdGenerator(stringRedisTemplate);
+        }
+        return new RedisIdWorker(stringRedisTemplate, segmentStep);
+    }
+}
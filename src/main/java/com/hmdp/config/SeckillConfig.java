@@ -0,0 +1,46 @@
+package com.hmdp.config;
+
+import com.hmdp.mapper.OrderOutboxMapper;
+import com.hmdp.utils.JdbcOutboxOrderQueue;
+import com.hmdp.utils.MemoryOrderQueue;
+import com.hmdp.utils.OrderQueue;
+import com.hmdp.utils.RedisStreamOrderQueue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@Configuration
+public class SeckillConfig {
+    @Value("${hmdp.seckill.queue:redis}")
+    private String queue;
+    @Value("${hmdp.seckill.consumers:4}")
+    private int consumers;
+    @Value("${hmdp.seckill.batch-size:50}")
+    private int batchSize;
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private long maxDeliveries;
+    @Value("${hmdp.seckill.retry-backoff:1000}")
+    private long retryBackoff;
+    @Value("${hmdp.seckill.reclaim-min-idle:30000}")
+    private long reclaimMinIdle;
+    @Value("${hmdp.seckill.ring-size:65536}")
+    private int ringSize;
+
+    /**
+     * 秒杀订单队列：redis（默认）、memory 或 outbox
+     * 切换前需要先处理完旧队列中的订单，队列之间不会互相迁移
+     */
+    @Bean(destroyMethod = "stop")
+    public OrderQueue orderQueue(StringRedisTemplate stringRedisTemplate, OrderOutboxMapper orderOutboxMapper,
+                                 TransactionTemplate transactionTemplate) {
+        if ("memory".equalsIgnoreCase(queue)) {
+            return new MemoryOrderQueue(consumers, ringSize, batchSize, maxDeliveries, retryBackoff);
+        }
+        if ("outbox".equalsIgnoreCase(queue)) {
+            return new JdbcOutboxOrderQueue(orderOutboxMapper, transactionTemplate, consumers, batchSize, maxDeliveries, retryBackoff);
+        }
+        return new RedisStreamOrderQueue(stringRedisTemplate, "stream.orders", consumers, batchSize, maxDeliveries, retryBackoff, reclaimMinIdle);
+    }
+}
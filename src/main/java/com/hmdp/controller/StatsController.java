@@ -0,0 +1,45 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedFanout;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 运行指标查询
+ * </p>
+ */
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private FeedFanout feedFanout;
+
+    /**
+     * 查询缓存各层（L1本地缓存 / L2 Redis / 数据库）的命中计数
+     * @return 计数器快照
+     */
+    @GetMapping("/cache")
+    public Result cacheStats() {
+        return Result.ok(cacheClient.getStats());
+    }
+
+    /**
+     * 查询Feed流推送任务的积压与延迟
+     * @return 积压任务数、最早任务的等待时间、推送延迟与计数器
+     */
+    @GetMapping("/feed")
+    public Result feedStats() {
+        return Result.ok(feedFanout.getStats());
+    }
+}
@@ -4,9 +4,11 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
@@ -31,4 +33,23 @@ public class VoucherOrderController {
         return voucherOrderService.seckillVoucher(voucherId);
 
     }
+
+    /**
+     * 轮询秒杀排队凭证：轮到时直接下单，否则返回当前排队位置
+     * @param ticket 秒杀请求被限流时返回的排队凭证号
+     */
+    @GetMapping("seckill/{id}/ticket/{ticket}")
+    public Result pollTicket(@PathVariable("id") Long voucherId, @PathVariable("ticket") Long ticket) {
+        return voucherOrderService.pollTicket(voucherId, ticket);
+    }
+
+    /**
+     * 重放死信队列中的订单消息
+     * @param count 最多重放的消息数量
+     * @return 重放的消息数量
+     */
+    @PostMapping("dlq/replay")
+    public Result replayDeadLetters(@RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return voucherOrderService.replayDeadLetters(count);
+    }
 }
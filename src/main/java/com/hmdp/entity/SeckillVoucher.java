@@ -39,6 +39,11 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * 每人限购数量
+     */
+    private Integer perUserLimit;
+
     /**
      * 创建时间
      */
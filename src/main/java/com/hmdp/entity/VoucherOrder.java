@@ -1,6 +1,7 @@
 package com.hmdp.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
@@ -42,6 +43,17 @@ public class VoucherOrder implements Serializable {
      */
     private Long voucherId;
 
+    /**
+     * 同一用户购买同一张代金券的序号（从1开始，不超过每人限购数量）
+     */
+    private Integer buySeq;
+
+    /**
+     * 扣减了库存的分桶号（只在下单请求中使用，订单放入队列失败时据此回补库存）
+     */
+    @TableField(exist = false)
+    private Integer stockBucket;
+
     /**
      * 支付方式 1：余额支付；2：支付宝；3：微信
      */
@@ -0,0 +1,45 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.VoucherOrder;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  订单发件箱表tb_order_outbox的Mapper接口（订单队列的outbox实现使用）
+ * </p>
+ */
+public interface OrderOutboxMapper {
+
+    /**
+     * 写入一条待处理的订单
+     */
+    int insert(VoucherOrder order);
+
+    /**
+     * 查询到期的待处理订单并加行锁，跳过其他消费者已经锁住的行（FOR UPDATE SKIP LOCKED，需要MySQL 8.0）
+     */
+    List<VoucherOrder> selectDueForUpdate(@Param("limit") int limit);
+
+    /**
+     * 查询一条待处理订单并加行锁，已被其他消费者锁住或已不存在时返回null（FOR UPDATE SKIP LOCKED）
+     */
+    VoucherOrder selectByIdForUpdate(@Param("id") Long id);
+
+    /**
+     * 删除已经处理完的订单
+     */
+    int deleteByIds(@Param("ids") List<Long> ids);
+
+    /**
+     * 记录一次处理失败：投递次数加一，按退避时间推迟下一次处理，达到最大投递次数时转为死信
+     */
+    int markFailed(@Param("id") Long id, @Param("maxDeliveries") long maxDeliveries,
+                   @Param("backoff") long backoff, @Param("maxBackoff") long maxBackoff);
+
+    /**
+     * 把最早的limit条死信恢复为待处理
+     */
+    int replayDead(@Param("limit") int limit);
+}
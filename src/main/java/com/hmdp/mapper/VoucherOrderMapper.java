@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,17 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 新增订单，违反唯一约束(user_id, voucher_id, buy_seq)或主键重复时忽略
+     *
+     * @return 插入的行数，0表示订单已经存在
+     */
+    int insertIgnore(VoucherOrder order);
+
+    /**
+     * 批量新增订单（一条多行INSERT），重复的订单被忽略
+     *
+     * @return 真正插入的行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
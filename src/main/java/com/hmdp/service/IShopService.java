@@ -16,7 +16,11 @@ public interface IShopService extends IService<Shop> {
 
     Result queryShopById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result updateShop(Shop shop);
 
+    Result deleteShop(Long id);
+
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
 }
@@ -4,11 +4,19 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 
+import java.util.List;
+
 
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    Result pollTicket(Long voucherId, Long ticket);
+
     void createVoucherOrder(VoucherOrder voucherId);
 
+    void createVoucherOrders(List<VoucherOrder> orders);
+
+    Result replayDeadLetters(Integer count);
+
 }
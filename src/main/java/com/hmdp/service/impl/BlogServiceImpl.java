@@ -9,15 +9,20 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedFanout;
+import com.hmdp.utils.FeedInbox;
+import com.hmdp.utils.FeedMerge;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jodd.util.StringUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -27,10 +32,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -40,6 +46,7 @@ import static com.hmdp.utils.RedisConstants.FEED_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
@@ -51,7 +58,13 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private IFollowService followService;
+    private CacheClient cacheClient;
+
+    @Resource
+    private FeedFanout feedFanout;
+
+    @Resource
+    private FeedInbox feedInbox;
 
     @Override
     public Result queryHotBlog(Integer current) {
@@ -107,6 +120,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             if (isSuccess){//该判断是必要的,只有数据库更改成功后才可以更新redis
 //                3.2保存用户到Redis的set集合,   zadd key value score
                 stringRedisTemplate.opsForZSet().add(key, userId.toString(),System.currentTimeMillis());
+//                3.3点赞数变化，删除笔记缓存
+                cacheClient.evict(BLOG_KEY + id);
             }
         }else {
             // 4.如果已点赞,取消点赞
@@ -115,6 +130,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             if (isSuccess) {
             //  4.2.把用户从Redis的set集合移除
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+            //  4.3点赞数变化，删除笔记缓存
+                cacheClient.evict(BLOG_KEY + id);
             }
         }
         return Result.ok();
@@ -150,67 +167,88 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess){
             return Result.fail("新增笔记失败");
         }
-//        3.查询笔记作者(即当前登录用户)的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        if (follows == null || follows.isEmpty()){
-            //如果当前登录用户无粉丝，那么直接返回笔记id即可
-            return Result.ok(blog.getId());
+//        3.推送笔记：普通作者推送到每个粉丝的收件箱，大V只写入自己的发件箱，粉丝读取时拉取
+        pushToFollowers(user.getId(), blog.getId(), System.currentTimeMillis());
+        // 4.返回id
+        return Result.ok(blog.getId());
+    }
+
+    /**
+     * 推拉结合：
+     * 1.大V（粉丝数达到推送阈值的作者）：ZADD feed:outbox:作者id，粉丝读取时拉取
+     * 2.其余作者：提交一个推送任务，由FeedFanout在后台分页推送到每个粉丝的收件箱，发布请求不等待推送完成
+     */
+    private void pushToFollowers(Long authorId, Long blogId, long time) {
+        if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FEED_CELEBRITY_KEY, authorId.toString()))) {
+            stringRedisTemplate.opsForZSet().add(FEED_OUTBOX_KEY + authorId, blogId.toString(), time);
+            return;
         }
-//        4.推送笔记id给所有粉丝
-        for (Follow follow :follows) {
-//            4.1获取粉丝的id
-            Long userId = follow.getUserId();
-//                4.2推送
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key,blog.getId().toString(),System.currentTimeMillis());
+        try {
+            feedFanout.submit(authorId, blogId, time);
+        } catch (Exception e) {
+            // 笔记已经保存，推送任务提交失败只影响粉丝的Feed流，记录下来以便补推
+            log.error("提交推送任务失败，作者：{}，笔记：{}", authorId, blogId, e);
         }
-        // 5.返回id
-        return Result.ok(blog.getId());
     }
 
     @Override
     public Result queryBlogOfFollow(Long max, Integer offset) {
-//       1.获取当前用户
+//       1.获取当前用户，更新活跃时间（收件箱因长期不活跃被回收时先重建）
         Long userId = UserHolder.getUser().getId();
-//       2.查询收件箱 zreverangebyscore key max min limit offset count
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-//       3.非空判断
-        if (typedTuples == null || typedTuples.isEmpty()) {
+        feedInbox.touch(userId);
+//       2.查询收件箱，以及关注的大V的发件箱 zrevrangebyscore key max 0 withscores limit 0 offset+count（一次往返）
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        Set<String> celebrities = stringRedisTemplate.opsForSet().intersect("follows:" + userId, FEED_CELEBRITY_KEY);
+        if (celebrities != null) {
+            for (String celebrity : celebrities) {
+                keys.add(FEED_OUTBOX_KEY + celebrity);
+            }
+        }
+        int count = SystemConstants.FEED_PAGE_SIZE;
+        List<Object> sources = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ZSetOperations<String, String> zSet = (ZSetOperations<String, String>) operations.opsForZSet();
+                for (String key : keys) {
+                    zSet.reverseRangeByScoreWithScores(key, 0, max, 0, offset + count);
+                }
+                return null;
+            }
+        });
+//       3.多路归并，按offset跳过上一页已经返回的数据
+        @SuppressWarnings("unchecked")
+        FeedMerge.Page page = FeedMerge.merge((List<Set<ZSetOperations.TypedTuple<String>>>) (List<?>) sources, max, offset, count);
+//       4.非空判断
+        if (page.getItems().isEmpty()) {
             return Result.ok();
         }
-//       4.解析数据:blogId,minTime(时间戳),offset
-        List<Long> ids = new ArrayList<>(typedTuples.size());
-        long minTime = 0;
-        int os = 1;
-        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {//5 4 4 2 2
-            //        4.1 获取id
+//       5.解析数据:blogId,minTime(时间戳),offset
+        List<Long> ids = new ArrayList<>(page.getItems().size());
+        for (ZSetOperations.TypedTuple<String> tuple : page.getItems()) {
             ids.add(Long.valueOf(tuple.getValue()));
-//            4.2获取分数(时间戳)
-            long time = tuple.getScore().longValue();
-            if (time == minTime){
-                os++;
-            }else {
-                minTime = time;
-                os = 1;
-            }
         }
-//    5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("order by field(id," + idStr + ")").list();
-        for (Blog blog : blogs) {
-//        5.1查询blog相关的用户
+//    6.根据id批量查询blog：先查缓存（一次MGET），未命中的id合并为一次数据库查询，结果与ids顺序一致
+        List<Blog> cached = cacheClient.getAll(BLOG_KEY, ids, Blog.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Blog::getId, Function.identity())),
+                BLOG_TTL, TimeUnit.MINUTES);
+        List<Blog> blogs = new ArrayList<>(cached.size());
+        for (Blog cachedBlog : cached) {
+            // 缓存中的对象是共享的，需要复制一份再填充用户和点赞信息
+            Blog blog = BeanUtil.copyProperties(cachedBlog, Blog.class);
+//        6.1查询blog相关的用户
             queryBlogUser(blog);
-            //        5.2查询blog是否被点赞
+            //        6.2查询blog是否被点赞
             isBlogLiked(blog);
+            blogs.add(blog);
         }
 
-//            6封装并返回
+//            7封装并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
-        r.setOffset(os);
-        r.setMinTime(minTime);
+        r.setOffset(page.getOffset());
+        r.setMinTime(page.getMinTime());
         return Result.ok(r);
     }
 
@@ -1,4 +1,5 @@
 package com.hmdp.service.impl;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -9,6 +10,8 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopCuckooFilter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
@@ -22,6 +25,8 @@ import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.DEFAULT_PAGE_SIZE;
 
@@ -44,10 +49,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
-    //todo  比如在HmDianPingApplicationTests中对“103餐厅”进行数据预热（已经实现），但是后面四个餐厅作为非热点key则进行普通的缓存穿透代码实现（未实现）
-    //此queryById方法仅仅针对热点Key进行逻辑过期操作
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+
+    @Resource
+    private ShopCuckooFilter shopCuckooFilter;
+
+    //热点key自动识别：访问量大的店铺（比如“103餐厅”）自动晋升为逻辑过期模式并预热，其余店铺走普通的缓存空值法，冷却后自动降级
+    //HmDianPingApplicationTests中的手动预热依然可以使用
     @Override
     public Result queryShopById(Long id) {
+        //布谷鸟过滤器（本地内存，支持删除）拦截不存在和已删除的店铺，不访问Redis
+        if (!shopCuckooFilter.contains(id)) {
+            return Result.fail("店铺不存在！");
+        }
         //缓存穿透代码实现
 //        Shop shop = queryWithPassThrough(id);
 //        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
@@ -57,7 +72,13 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 //        逻辑过期解决缓存击穿
 //        Shop shop = queryWithLogicalExpire(id);
-        Shop shop = cacheClient.handCacheBreakdownByLogicalExpire(SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY,this::getById, SHOP_TTL, TimeUnit.MINUTES);
+//        Shop shop = cacheClient.handCacheBreakdownByLogicalExpire(SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY,this::getById, SHOP_TTL, TimeUnit.MINUTES);
+
+//        逻辑过期+概率提前刷新：热点key在过期之前就被平滑地刷新
+//        Shop shop = cacheClient.handCacheBreakdownByEarlyRefresh(SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY,this::getById, SHOP_TTL, TimeUnit.MINUTES);
+
+//        自动识别热点key：普通key走缓存空值法，热点key走逻辑过期+概率提前刷新
+        Shop shop = cacheClient.handCacheAdaptive(SHOP_KEY, id, Shop.class, LOCK_SHOP_KEY,this::getById, SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("店铺不存在！");
         }
@@ -204,6 +225,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     **/
 
 
+    @Override
+    public Result saveShop(Shop shop) {
+//        1.写入数据库
+        boolean isSuccess = save(shop);
+        if (!isSuccess) {
+            return Result.fail("新增店铺失败！");
+        }
+//        2.清除这个id之前留下的空值和区间拒绝记录（可能有人在店铺创建之前查询过这个id）
+        cacheClient.evictNegative(SHOP_KEY, shop.getId());
+//        3.加入布隆过滤器（同时通过商铺变更流同步到各节点的本地镜像和布谷鸟过滤器），否则新店铺会被过滤器拦截
+        shopCuckooFilter.add(shop.getId());
+        shopBloomFilter.add(shop.getId());
+//        4.返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional(rollbackFor = {Exception.class})
     public Result updateShop(Shop shop) {
@@ -216,8 +253,28 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
          */
 //        1.先    操作数据库
         updateById(shop);
-//        2.再    进行缓存删除的操作
-        stringRedisTemplate.delete(SHOP_KEY + id);
+//        2.再    进行缓存删除的操作（同时广播失效消息，清除各节点的本地缓存）
+        cacheClient.evict(SHOP_KEY + id);
+        return Result.ok();
+    }
+
+    @Override
+    public Result deleteShop(Long id) {
+//        1.查询店铺（需要类型id来删除GEO中的位置）
+        Shop shop = getById(id);
+        if (shop == null) {
+            return Result.fail("店铺不存在！");
+        }
+//        2.删除数据库记录：只有真正删除了这条记录的请求才继续往下执行
+//        重复或并发的删除不能再次移除指纹，否则会误删与它指纹相同的其他店铺，导致该店铺在下次重建前被拦截
+        if (!removeById(id)) {
+            return Result.fail("店铺不存在！");
+        }
+//        3.删除缓存和GEO中的位置
+        cacheClient.evict(SHOP_KEY + id);
+        stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + shop.getTypeId(), id.toString());
+//        4.从布谷鸟过滤器中移除（通过商铺变更流通知所有节点），之后对这个店铺的请求在本地直接拦截
+        shopCuckooFilter.remove(id);
         return Result.ok();
     }
 
@@ -265,12 +322,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr,distance);
         });
-//        5.根据id查询shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("order by field(id," + idStr + ")").list();
-        // 遍历店铺数据，设置距离
-        for (Shop shop : shops) {
+//        5.根据id批量查询shop：先查缓存（一次MGET），未命中的id合并为一次数据库查询，结果与ids顺序一致
+        List<Shop> cached = cacheClient.getAll(SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                shopCuckooFilter, SHOP_TTL, TimeUnit.MINUTES);
+        // 遍历店铺数据，设置距离（缓存中的对象是共享的，需要复制一份再修改）
+        List<Shop> shops = new ArrayList<>(cached.size());
+        for (Shop cachedShop : cached) {
+            Shop shop = BeanUtil.copyProperties(cachedShop, Shop.class);
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(shop);
         }
 //            6.返回
         return Result.ok(shops);
@@ -10,6 +10,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FeedInbox;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -44,6 +45,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private FeedInbox feedInbox;
+
 
     @Override
     public Result sedCode(String phone) {
@@ -160,6 +164,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         stringRedisTemplate.opsForHash().putAll(tokenKey,userMap);
 //        7.4设置token有效期
         stringRedisTemplate.expire(tokenKey,LOGIN_USER_TTL,TimeUnit.MINUTES);
+//        7.5更新Feed流活跃时间，收件箱因长期不活跃被回收时在后台重建
+        feedInbox.onLogin(user.getId());
 //        8.返回token   客户端（浏览器/App）存储了这个 token（在 localStorage中，老师给的nginx代码中有这个）
         return Result.ok(token);
     }
@@ -1,35 +1,29 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.OrderQueue;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillStockBuckets;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.Duration;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.TreeMap;
 
 //继承自MyBatis-Plus提供的ServiceImpl类
 //泛型参数说明：
@@ -44,100 +38,42 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStockBuckets seckillStockBuckets;
 
     @Resource
-    private RedissonClient redissonClient;
+    private OrderQueue orderQueue;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    @Resource
+    private SeckillAdmission seckillAdmission;
 
-    // 创建一个单线程的线程池，用于异步处理订单
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
     @PostConstruct// @PostConstruct表示在构造方法执行后立即执行这个方法
     private void init(){
-        // 创建消息队列
-        if (Boolean.FALSE.equals(stringRedisTemplate.hasKey("stream.orders"))) {
-            stringRedisTemplate.opsForStream().createGroup("stream.orders", ReadOffset.from("0"), "g1");
-            log.debug("Stream队列创建成功");
-        }
-        // 提交订单处理任务到线程池
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-    }
-
-    private class VoucherOrderHandler implements Runnable{
-        String queueName = "stream.orders";
-        @Override
-        public void run() {
-            // 永久循环，不断从队列中获取订单并处理
-            while (true){
-                try {
-                    // 1.获取消息队列中的订单消息 xreadgroup group g1 c1 count 1 block 2000 streams stream.orders
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-//                    2.判断消息获取是否成功
-                    if (list == null || list.isEmpty()){
-//                        如果获取失败,说明没有消息,继续下一次循环
-                        continue;
-                    }
-//                    3.解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-//                    4.如果获取成功,可以下单
-                    handleVoucherOrder(voucherOrder);
-//                    5.ack确认 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常",e);
-                    handlePendingList();
-                }
+        // 启动订单队列的消费线程：一批订单在一个事务中创建，失败时逐条创建
+        orderQueue.start(new OrderQueue.Handler() {
+            @Override
+            public void handleBatch(List<VoucherOrder> orders) {
+                // 通过代理对象批量创建订单，以确保事务生效
+                proxy.createVoucherOrders(orders);
             }
-        }
 
-        private void handlePendingList() {
-            while (true){
-                try {
-                    // 1.获取pending-list中的订单消息 xreadgroup group g1 c1 count 1 streams stream.orders 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-//                    2.判断消息获取是否成功
-                    if (list == null || list.isEmpty()){
-//                        如果获取失败,说明pending-list没有消息,结束循环
-                        break;
-                    }
-//                    3.解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-//                    4.如果获取成功,可以下单
-                    handleVoucherOrder(voucherOrder);
-//                    5.ack确认 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    // 防止处理频繁，下次循环休眠20毫秒
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }
+            @Override
+            public void handle(VoucherOrder order) {
+                handleVoucherOrder(order);
             }
-        }
+        });
+    }
+
+    /**
+     * 重放死信：把最早的count条死信重新放回订单队列
+     */
+    @Override
+    public Result replayDeadLetters(Integer count) {
+        int n = orderQueue.replayDeadLetters(count);
+        log.info("重放死信队列中的订单：{}条", n);
+        return Result.ok(n);
     }
 
     // 定义一个内部类，实现Runnable接口，用于处理订单任务
@@ -160,48 +96,99 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }*/
 
 
-    /*前面都已经用lua脚本实现原子操作了，为什么还要加一次锁？   事实上不做获取锁的动作也可以，但是万一redis没有判断成功（几乎没可能），一句话，为了安全，为了兜底，以防万一*/
+    /*每人限购由订单表的唯一约束(user_id, voucher_id, buy_seq)兜底：重复投递的消息插入时被忽略，不再需要获取"lock:order:" + userId的分布式锁*/
     //因为是异步处理，所以不需要Result再给前端返回任何东西了
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //1.获取用户id(此时不可以再利用UserHolder获取了，因为这是新开的线程)
-        Long userId = voucherOrder.getUserId();
-        //2.// 创建分布式锁，锁的key为 "lock:order:" + 用户ID
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-//        3.获取锁
-        boolean isLock = lock.tryLock();
-//        4.判断是否获取锁成功
-        if (!isLock){
-            //        获取锁失败，返回错误
-            log.error("不允许重复下单");
-            return;
-        }
-
-        try {
-            // 通过代理对象创建订单，以确保事务生效
-            proxy.createVoucherOrder(voucherOrder);//通过父线程的成员变量，该子线程直接可以获取到父线程的代理对象
-        } finally {
-            lock.unlock();
-        }
-
+        // 通过代理对象创建订单，以确保事务生效
+        proxy.createVoucherOrder(voucherOrder);
     }
+    // 代理对象（自身注入，延迟到第一次使用时获取），子线程通过它调用事务方法；不再依赖第一次下单时才设置的成员变量
+    @Resource
+    @Lazy
     private IVoucherOrderService proxy;
     @Override
     public Result seckillVoucher(Long voucherId) {
+//        本地售罄标记：已经卖完的优惠券直接返回，不生成订单id、不访问Redis
+        if (seckillStockBuckets.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
 //        获取用户id
         Long userId = UserHolder.getUser().getId();
-//        获取订单id
-        long orderId = redisIdWorker.nextId("order");
-//        1.执行lua脚本
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(), voucherId.toString(), userId.toString(),String.valueOf(orderId),"stream.orders");
+//        准入控制：超过这张优惠券的放行速率时不直接失败，返回排队凭证，之后通过pollTicket轮询
+        long ticket = seckillAdmission.acquire(voucherId, userId);
+        if (ticket > 0) {
+            return admitOrWait(voucherId, userId, ticket);
+        }
+        return doSeckill(voucherId, userId);
+    }
+
+    /**
+     * 轮询排队凭证：轮到时直接用这次请求下单，否则返回当前排队位置
+     */
+    @Override
+    public Result pollTicket(Long voucherId, Long ticket) {
+        if (seckillStockBuckets.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        return admitOrWait(voucherId, UserHolder.getUser().getId(), ticket);
+    }
+
+    /**
+     * 查询凭证：已经放行则下单；还在排队则返回凭证号、前面的人数和预计等待时间（毫秒）
+     */
+    private Result admitOrWait(Long voucherId, Long userId, long ticket) {
+        long position = seckillAdmission.poll(voucherId, userId, ticket);
+        if (position < 0) {
+            return Result.fail("排队凭证无效或已使用");
+        }
+        if (position == 0) {
+            return doSeckill(voucherId, userId);
+        }
+        Map<String, Object> waiting = new HashMap<>(4);
+        waiting.put("queued", true);
+        waiting.put("ticket", ticket);
+        waiting.put("position", position);
+        waiting.put("waitMillis", seckillAdmission.estimateWait(position));
+        return Result.ok(waiting);
+    }
+
+    /**
+     * 秒杀脚本的结果对应的提示（下标为结果）
+     */
+    private static final String[] SECKILL_FAIL_MESSAGES = {"", "库存不足", "已达到每人限购数量，请勿重复下单", "库存不足", "秒杀尚未开始！", "秒杀已经结束！"};
+
+    /**
+     * 已经放行的请求：判断购买资格、扣库存并把订单放入队列
+     */
+    private Result doSeckill(Long voucherId, Long userId) {
+//        获取订单id（号段模式或雪花算法，都在本地生成，不访问Redis）
+        long orderId = idGenerator.nextId("order");
+        VoucherOrder voucherOrder = new VoucherOrder().setId(orderId).setUserId(userId).setVoucherId(voucherId);
+//        1.执行lua脚本（秒杀时间、每人限购、扣库存一次判断；库存拆分为多个分桶，先在用户所属的分桶中扣减，卖完再尝试其他分桶）
+        String stream = orderQueue.scriptStream();
+        int r = seckillStockBuckets.tryAcquire(voucherOrder, stream);
 //        2.判断结果是否为0
-        int r = result.intValue();
         if (r != 0) {
             //        2.1结果不为0，返回异常信息,没有购买资格
-            return Result.fail(r==1?"库存不足":"不能重复下单");
+            return Result.fail(SECKILL_FAIL_MESSAGES[r]);
         }
-//        3.获取代理对象以让子线程能够拿到（方法1：放入阻塞队列，方法2：变成主线程的成员变量即可）
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        //4.返回订单id
+//        2.2订单队列不是Redis Stream（脚本没有写入消息）：把订单放入队列
+        if (stream == null) {
+            try {
+                orderQueue.publish(voucherOrder);
+            } catch (Exception e) {
+                // Redis中的库存已经扣减、限购名额已经占用：回补库存并撤销占位，用户可以重新下单
+                log.error("订单放入队列失败，回补库存：{}", voucherOrder, e);
+                try {
+                    seckillStockBuckets.release(voucherOrder);
+                } catch (Exception ex) {
+                    // 回补也失败了：记录订单以便人工回补库存
+                    log.error("回补库存失败：{}", voucherOrder, ex);
+                }
+                return Result.fail("下单失败，请稍后重试");
+            }
+        }
+        //3.返回订单id
         return Result.ok(orderId);
     }
 
@@ -273,13 +260,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Transactional(rollbackFor = {Exception.class})
     public void createVoucherOrder(VoucherOrder voucherOrder){
-        //5.实现一人一单（悲观锁解决一人一单查询问题，乐观锁解决数据库更新问题）
-        Long userId = voucherOrder.getUserId();//不可以Long userId = UserHolder.getUser().getId(); 因为此时是子线程调用了，无法获取父线程的用户的id，所以只能通过订单获取用户id了
-//        5.1查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-//        5.2判断是否存在
-        if (count > 0){
-            log.error("用户已经购买过一次！");//尽管redis通过lua脚本已经实现了判断，但这里再次进行判断为了兜底（事实上redis几乎不可能发生判断错误的问题）
+        //5.实现每人限购：依赖唯一约束(user_id, voucher_id, buy_seq)，不再先查询订单数量（查询与插入之间存在并发窗口，还多一次查询）
+//        5.1创建订单，INSERT IGNORE：用户已经购买过（或者是重复投递的消息）时什么都不做，影响行数为0
+        defaultBuySeq(voucherOrder);
+        int inserted = getBaseMapper().insertIgnore(voucherOrder);
+        if (inserted == 0){
+            log.debug("用户已经购买过一次，忽略重复的订单：{}", voucherOrder.getId());
             return ;
         }
 
@@ -289,9 +275,51 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if (!success){
             log.error("库存不足！");//尽管redis通过lua脚本已经实现了判断，但这里再次进行判断为了兜底（事实上redis几乎不可能发生判断错误的问题）
-            return;
+            // 回滚刚才插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        }
+    }
+
+    /**
+     * 升级之前写入队列的订单消息没有购买序号，按第一次购买处理
+     */
+    private static void defaultBuySeq(VoucherOrder order) {
+        if (order.getBuySeq() == null) {
+            order.setBuySeq(1);
+        }
+    }
+
+    /**
+     * 在一个事务中批量创建订单
+     * 按优惠券分组，按优惠券id顺序处理（多个线程按相同的顺序加行锁，避免死锁），每组两条语句：
+     * 1.INSERT IGNORE多行写入：唯一约束(user_id, voucher_id, buy_seq)与主键去重，已经买过的用户和重复投递的消息被忽略，返回真正插入的行数
+     * 2.按插入的行数扣库存：update ... set stock = stock - n where stock >= n
+     * 库存不够整组扣减（只有Redis与数据库的库存不一致时才会发生）时抛出异常回滚整批，由调用方逐条处理
+     */
+    @Override
+    @Transactional(rollbackFor = {Exception.class})
+    public void createVoucherOrders(List<VoucherOrder> orders) {
+        Map<Long, List<VoucherOrder>> byVoucher = new TreeMap<>();
+        for (VoucherOrder order : orders) {
+            defaultBuySeq(order);
+            byVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+//            1.创建订单，重复的订单被忽略
+            int inserted = getBaseMapper().insertIgnoreBatch(entry.getValue());
+            if (inserted < entry.getValue().size()) {
+                log.debug("忽略重复的订单：{}条", entry.getValue().size() - inserted);
+            }
+            if (inserted == 0) {
+                continue;
+            }
+//            2.按新订单数量扣库存(乐观锁的CAS法解决超卖问题）
+            boolean success = seckillVoucherService.update()//set stock = stock - n
+                    .setSql("stock = stock - " + inserted).eq("voucher_id", entry.getKey()).ge("stock", inserted)//where voucher_id = ? and stock >= n
+                    .update();
+            if (!success) {
+                throw new IllegalStateException("库存不足，优惠券：" + entry.getKey());
+            }
         }
-        //        7.创建订单
-        save(voucherOrder);
     }
 }
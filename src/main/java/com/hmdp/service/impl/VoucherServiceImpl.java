@@ -7,6 +7,7 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockBuckets;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -14,8 +15,6 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -31,6 +30,8 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillStockBuckets seckillStockBuckets;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -51,8 +52,11 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        // 每人限购数量，默认一人一单
+        int perUserLimit = voucher.getPerUserLimit() == null || voucher.getPerUserLimit() < 1 ? 1 : voucher.getPerUserLimit();
+        seckillVoucher.setPerUserLimit(perUserLimit);
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 预加载秒杀券到Redis中（库存拆分为多个分桶，秒杀时间、每人限购数量由秒杀脚本判断）
+        seckillStockBuckets.init(voucher.getId(), voucher.getStock(), voucher.getBeginTime(), voucher.getEndTime(), perUserLimit);
     }
 }
@@ -0,0 +1,498 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 二进制紧凑编解码器
+ * 为常用实体按字段顺序手写编解码（schema），不写字段名，整数用变长编码，超过阈值的数据再用LZ4压缩
+ * 与JSON相比，占用的Redis内存和网络字节更少，解码时也不需要先解析出JSONObject再转换成实体（没有二次解析）
+ *
+ * 数据格式：[格式字节][schemaId][schema版本][原始长度（仅压缩时）][正文]
+ * 格式字节的高3位固定为100（0x80），低4位：1-普通数据 2-逻辑过期数据 3-带重建耗时的逻辑过期数据；0x10位：正文经过LZ4压缩
+ * 合法的JSON（UTF-8）首字节一定是ASCII字符（小于0x80），不会与格式字节冲突，因此旧数据和没有注册schema的类型都交给JSON编解码器处理
+ * 截断或损坏的数据解码失败时返回null，按缓存未命中处理
+ */
+@SuppressWarnings({"all"})
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final int MAGIC = 0x80;
+    private static final int MAGIC_MASK = 0xE0;
+    private static final int FORMAT_PLAIN = 0x01;
+    private static final int FORMAT_LOGICAL = 0x02;
+    private static final int FORMAT_LOGICAL_COST = 0x03;
+    private static final int FORMAT_MASK = 0x0F;
+    private static final int FLAG_LZ4 = 0x10;
+    private static final long MAX_COMPRESSION_RATIO = 255L;
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+    private static final LZ4Compressor COMPRESSOR = LZ4.fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4.fastDecompressor();
+
+    /**
+     * 每个线程复用一个写缓冲区，避免每次编码都重新分配并扩容数组
+     */
+    private static final ThreadLocal<Writer> WRITER = ThreadLocal.withInitial(() -> new Writer(256));
+
+    private final Map<Class<?>, Schema<?>> schemasByType = new HashMap<>();
+    private final Schema<?>[] schemasById = new Schema<?>[128];
+
+    private final CacheCodec fallback = new JsonCacheCodec();
+
+    /**
+     * 正文超过该字节数才压缩，小对象压缩收益很小，反而浪费CPU
+     */
+    private final int compressThreshold;
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+        registerDefaultSchemas();
+    }
+
+    /**
+     * 实体的编解码规则，字段顺序即存储顺序
+     * 实体增删字段后必须提升version，旧版本数据解码时返回null，按缓存未命中处理后自动重建
+     */
+    private static class Schema<T> {
+        final int id;
+        final int version;
+        final BiConsumer<T, Writer> writer;
+        final Function<Reader, T> reader;
+
+        Schema(int id, int version, BiConsumer<T, Writer> writer, Function<Reader, T> reader) {
+            this.id = id;
+            this.version = version;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+
+    /**
+     * 注册实体的编解码规则（只在构造方法中调用，注册完成后schema表只读，可以被多个线程并发读取）
+     *
+     * @param type    实体类型
+     * @param id      schema编号（1~127），写入数据中用于识别类型
+     * @param version schema版本
+     * @param writer  按顺序写出字段
+     * @param reader  按相同顺序读入字段
+     */
+    private <T> void register(Class<T> type, int id, int version, BiConsumer<T, Writer> writer, Function<Reader, T> reader) {
+        Schema<T> schema = new Schema<>(id, version, writer, reader);
+        schemasByType.put(type, schema);
+        schemasById[id] = schema;
+    }
+
+    private void registerDefaultSchemas() {
+        register(Shop.class, 1, 1,
+                (shop, w) -> {
+                    w.writeLong(shop.getId());
+                    w.writeString(shop.getName());
+                    w.writeLong(shop.getTypeId());
+                    w.writeString(shop.getImages());
+                    w.writeString(shop.getArea());
+                    w.writeString(shop.getAddress());
+                    w.writeDouble(shop.getX());
+                    w.writeDouble(shop.getY());
+                    w.writeLong(shop.getAvgPrice());
+                    w.writeInt(shop.getSold());
+                    w.writeInt(shop.getComments());
+                    w.writeInt(shop.getScore());
+                    w.writeString(shop.getOpenHours());
+                    w.writeDateTime(shop.getCreateTime());
+                    w.writeDateTime(shop.getUpdateTime());
+                    w.writeDouble(shop.getDistance());
+                },
+                r -> new Shop()
+                        .setId(r.readLong())
+                        .setName(r.readString())
+                        .setTypeId(r.readLong())
+                        .setImages(r.readString())
+                        .setArea(r.readString())
+                        .setAddress(r.readString())
+                        .setX(r.readDouble())
+                        .setY(r.readDouble())
+                        .setAvgPrice(r.readLong())
+                        .setSold(r.readInt())
+                        .setComments(r.readInt())
+                        .setScore(r.readInt())
+                        .setOpenHours(r.readString())
+                        .setCreateTime(r.readDateTime())
+                        .setUpdateTime(r.readDateTime())
+                        .setDistance(r.readDouble()));
+        register(Blog.class, 2, 1,
+                (blog, w) -> {
+                    w.writeLong(blog.getId());
+                    w.writeLong(blog.getShopId());
+                    w.writeLong(blog.getUserId());
+                    w.writeString(blog.getIcon());
+                    w.writeString(blog.getName());
+                    w.writeBoolean(blog.getIsLike());
+                    w.writeString(blog.getTitle());
+                    w.writeString(blog.getImages());
+                    w.writeString(blog.getContent());
+                    w.writeInt(blog.getLiked());
+                    w.writeInt(blog.getComments());
+                    w.writeDateTime(blog.getCreateTime());
+                    w.writeDateTime(blog.getUpdateTime());
+                },
+                r -> new Blog()
+                        .setId(r.readLong())
+                        .setShopId(r.readLong())
+                        .setUserId(r.readLong())
+                        .setIcon(r.readString())
+                        .setName(r.readString())
+                        .setIsLike(r.readBoolean())
+                        .setTitle(r.readString())
+                        .setImages(r.readString())
+                        .setContent(r.readString())
+                        .setLiked(r.readInt())
+                        .setComments(r.readInt())
+                        .setCreateTime(r.readDateTime())
+                        .setUpdateTime(r.readDateTime()));
+        register(UserDTO.class, 3, 1,
+                (user, w) -> {
+                    w.writeLong(user.getId());
+                    w.writeString(user.getNickName());
+                    w.writeString(user.getIcon());
+                },
+                r -> {
+                    UserDTO user = new UserDTO();
+                    user.setId(r.readLong());
+                    user.setNickName(r.readString());
+                    user.setIcon(r.readString());
+                    return user;
+                });
+        register(Voucher.class, 4, 2,
+                (voucher, w) -> {
+                    w.writeLong(voucher.getId());
+                    w.writeLong(voucher.getShopId());
+                    w.writeString(voucher.getTitle());
+                    w.writeString(voucher.getSubTitle());
+                    w.writeString(voucher.getRules());
+                    w.writeLong(voucher.getPayValue());
+                    w.writeLong(voucher.getActualValue());
+                    w.writeInt(voucher.getType());
+                    w.writeInt(voucher.getStatus());
+                    w.writeInt(voucher.getStock());
+                    w.writeDateTime(voucher.getBeginTime());
+                    w.writeDateTime(voucher.getEndTime());
+                    w.writeInt(voucher.getPerUserLimit());
+                    w.writeDateTime(voucher.getCreateTime());
+                    w.writeDateTime(voucher.getUpdateTime());
+                },
+                r -> new Voucher()
+                        .setId(r.readLong())
+                        .setShopId(r.readLong())
+                        .setTitle(r.readString())
+                        .setSubTitle(r.readString())
+                        .setRules(r.readString())
+                        .setPayValue(r.readLong())
+                        .setActualValue(r.readLong())
+                        .setType(r.readInt())
+                        .setStatus(r.readInt())
+                        .setStock(r.readInt())
+                        .setBeginTime(r.readDateTime())
+                        .setEndTime(r.readDateTime())
+                        .setPerUserLimit(r.readInt())
+                        .setCreateTime(r.readDateTime())
+                        .setUpdateTime(r.readDateTime()));
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema schema = value == null ? null : schemasByType.get(value.getClass());
+        if (schema == null) {
+            return fallback.encode(value);
+        }
+        Writer w = WRITER.get().reset();
+        schema.writer.accept(value, w);
+        return finish(FORMAT_PLAIN, schema, w);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Object value = redisData.getData();
+        Schema schema = value == null ? null : schemasByType.get(value.getClass());
+        if (schema == null) {
+            return fallback.encodeLogical(redisData);
+        }
+        Writer w = WRITER.get().reset();
+        w.writeDateTime(redisData.getExpireTime());
+        // 有重建耗时才写入新格式，没有时仍写旧格式，保证滚动升级期间旧节点也能读取
+        if (redisData.getRebuildCost() == null) {
+            schema.writer.accept(value, w);
+            return finish(FORMAT_LOGICAL, schema, w);
+        }
+        w.writeLong(redisData.getRebuildCost());
+        schema.writer.accept(value, w);
+        return finish(FORMAT_LOGICAL_COST, schema, w);
+    }
+
+    @Override
+    public <T> RedisData decode(byte[] bytes, Class<T> type) {
+        if ((bytes[0] & MAGIC_MASK) != MAGIC) {
+            // 不是二进制格式：升级前写入的JSON数据，或者没有注册schema的类型
+            return fallback.decode(bytes, type);
+        }
+        int format = bytes[0] & FORMAT_MASK;
+        if (bytes.length < 3 || (format != FORMAT_PLAIN && format != FORMAT_LOGICAL && format != FORMAT_LOGICAL_COST)) {
+            return null;
+        }
+        Schema<?> schema = schemasById[bytes[1] & 0x7F];
+        if (schema == null || schema != schemasByType.get(type) || schema.version != (bytes[2] & 0xFF)) {
+            // schema不匹配或版本已变化，按未命中处理
+            return null;
+        }
+        try {
+            Reader r;
+            if ((bytes[0] & FLAG_LZ4) != 0) {
+                Reader header = new Reader(bytes, 3);
+                long rawLength = header.readVarLong();
+                // LZ4的压缩比不会超过255，超出的长度说明数据已损坏，不能按它分配内存（否则会OutOfMemoryError）
+                if (rawLength <= 0 || rawLength > Math.min(MAX_COMPRESSION_RATIO * (bytes.length - header.pos), Integer.MAX_VALUE - 8)) {
+                    return null;
+                }
+                byte[] raw = new byte[(int) rawLength];
+                int read = DECOMPRESSOR.decompress(bytes, header.pos, raw, 0, raw.length);
+                if (header.pos + read != bytes.length) {
+                    // 压缩数据长度与头部记录的原始长度对不上
+                    return null;
+                }
+                r = new Reader(raw, 0);
+            } else {
+                r = new Reader(bytes, 3);
+            }
+            RedisData redisData = new RedisData();
+            if (format != FORMAT_PLAIN) {
+                redisData.setExpireTime(r.readDateTime());
+            }
+            if (format == FORMAT_LOGICAL_COST) {
+                redisData.setRebuildCost(r.readLong());
+            }
+            redisData.setData(schema.reader.apply(r));
+            // 正文必须恰好读完，有剩余字节说明数据已损坏
+            return r.pos == r.buf.length ? redisData : null;
+        } catch (RuntimeException e) {
+            // 数据被截断或损坏（越界、LZ4解压失败、非法日期等），按未命中处理
+            return null;
+        }
+    }
+
+    /**
+     * 拼接头部，正文超过阈值时尝试LZ4压缩（压缩后更小才使用）
+     */
+    private byte[] finish(int format, Schema<?> schema, Writer body) {
+        int length = body.pos;
+        if (length >= compressThreshold) {
+            byte[] compressed = new byte[COMPRESSOR.maxCompressedLength(length) + 8];
+            Writer header = new Writer(8);
+            header.writeVarLong(length);
+            int headerLength = 3 + header.pos;
+            int compressedLength = COMPRESSOR.compress(body.buf, 0, length, compressed, headerLength, compressed.length - headerLength);
+            if (headerLength + compressedLength < 3 + length) {
+                compressed[0] = (byte) (MAGIC | format | FLAG_LZ4);
+                compressed[1] = (byte) schema.id;
+                compressed[2] = (byte) schema.version;
+                System.arraycopy(header.buf, 0, compressed, 3, header.pos);
+                byte[] result = new byte[headerLength + compressedLength];
+                System.arraycopy(compressed, 0, result, 0, result.length);
+                return result;
+            }
+        }
+        byte[] result = new byte[3 + length];
+        result[0] = (byte) (MAGIC | format);
+        result[1] = (byte) schema.id;
+        result[2] = (byte) schema.version;
+        System.arraycopy(body.buf, 0, result, 3, length);
+        return result;
+    }
+
+    /**
+     * 写缓冲区：所有可空字段都能表示null
+     */
+    public static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        Writer reset() {
+            pos = 0;
+            return this;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                byte[] bigger = new byte[Math.max(buf.length << 1, pos + n)];
+                System.arraycopy(buf, 0, bigger, 0, pos);
+                buf = bigger;
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        /**
+         * 无符号变长整数，每字节7位有效位，小数字只占1~2个字节
+         */
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        public void writeLong(Long v) {
+            if (v == null) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            // zigzag编码，让绝对值小的负数也能用很少的字节表示
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        public void writeInt(Integer v) {
+            // 0表示null，其余为zigzag值+1
+            writeVarLong(v == null ? 0 : (((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL) + 1);
+        }
+
+        public void writeDouble(Double v) {
+            if (v == null) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            long bits = Double.doubleToLongBits(v);
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (bits >>> i);
+            }
+        }
+
+        public void writeBoolean(Boolean v) {
+            writeByte(v == null ? 0 : (v ? 2 : 1));
+        }
+
+        public void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        public void writeDateTime(LocalDateTime t) {
+            if (t == null) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            long seconds = t.toEpochSecond(ZoneOffset.UTC);
+            writeVarLong((seconds << 1) ^ (seconds >> 63));
+            writeVarLong(t.getNano());
+        }
+    }
+
+    /**
+     * 读缓冲区，读取顺序必须与写入顺序一致
+     */
+    public static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        public Long readLong() {
+            if (buf[pos++] == 0) {
+                return null;
+            }
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        public Integer readInt() {
+            long v = readVarLong();
+            if (v == 0) {
+                return null;
+            }
+            int n = (int) (v - 1);
+            return (n >>> 1) ^ -(n & 1);
+        }
+
+        public Double readDouble() {
+            if (buf[pos++] == 0) {
+                return null;
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buf[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        public Boolean readBoolean() {
+            int v = buf[pos++];
+            return v == 0 ? null : v == 2;
+        }
+
+        public String readString() {
+            long v = readVarLong();
+            if (v == 0) {
+                return null;
+            }
+            int length = (int) (v - 1);
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        public LocalDateTime readDateTime() {
+            if (buf[pos++] == 0) {
+                return null;
+            }
+            long v = readVarLong();
+            long seconds = (v >>> 1) ^ -(v & 1);
+            int nano = (int) readVarLong();
+            return LocalDateTime.ofEpochSecond(seconds, nano, ZoneOffset.UTC);
+        }
+    }
+}
@@ -3,7 +3,7 @@ package com.hmdp.utils;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RBloomFilter;
+import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
@@ -11,9 +11,9 @@ import org.springframework.stereotype.Component;
 import javax.annotation.Resource;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.SHOP_KEY;
-import static com.hmdp.utils.RedisConstants.SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * 布隆过滤器演示类
@@ -32,29 +32,70 @@ public class BloomFilterDemo implements CommandLineRunner {
     @Resource
     private CacheClient cacheClient;
 
-    // 布隆过滤器名称
-    private static final String SHOP_BLOOM_FILTER = "shop:bloom:filter";
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+
+    @Resource
+    private ShopCuckooFilter shopCuckooFilter;
 
     /**
      * 初始化布隆过滤器并加载所有商铺ID
      */
     @Override
     public void run(String... args) throws Exception {
-        // 创建布隆过滤器
-        RBloomFilter<Long> bloomFilter = redissonClient.getBloomFilter(SHOP_BLOOM_FILTER);
-        
-        // 初始化布隆过滤器，预计元素数量为1000，误判率为0.01
-        bloomFilter.tryInit(1000, 0.01);
-        
-        // 查询所有商铺ID并添加到布隆过滤器
-        List<Shop> shops = shopService.list();
-        log.info("正在初始化商铺布隆过滤器，商铺数量：{}", shops.size());
-        
-        for (Shop shop : shops) {
-            bloomFilter.add(shop.getId());
+        // 可扩容布隆过滤器：每层使用LongCodec编码，本地镜像按相同的字节计算哈希
+        ScalableBloomFilter bloomFilter = shopBloomFilter.getRemote();
+
+        // 多个节点同时启动时只由一个节点初始化，其他节点等待后直接使用
+        RLock lock = redissonClient.getLock(LOCK_SHOP_BLOOM_INIT);
+        lock.lock();
+        try {
+            long shopCount = shopService.count();
+            if (!bloomFilter.isLoaded()) {
+                // 根据商铺表的数据量确定第0层容量（留出余量），之后增长时自动扩容新的一层
+                // 上次启动在加载中途退出时过滤器已经存在，tryInit不生效，直接重新加载全部id
+                long capacity = Math.max(shopCount * SHOP_BLOOM_HEADROOM, SHOP_BLOOM_MIN_CAPACITY);
+                bloomFilter.tryInit(capacity, SHOP_BLOOM_FPP);
+                log.info("正在初始化商铺布隆过滤器，商铺数量：{}，第0层容量：{}", shopCount, capacity);
+                long loaded = loadAll(bloomFilter);
+                // 最后一批写入之后才写完成标记
+                bloomFilter.markLoaded(loaded);
+                log.info("商铺布隆过滤器初始化完成，已加载商铺ID数量：{}，层数：{}", loaded, bloomFilter.getLayerCount());
+            } else if (bloomFilter.count() < shopCount) {
+                // 写入的数量少于商铺数量：有商铺没有经过本应用写入（例如直接执行SQL），重新写入全部id（已存在的id只是重复置位）
+                log.info("商铺布隆过滤器中的数量{}少于商铺数量{}，重新加载", bloomFilter.count(), shopCount);
+                long loaded = loadAll(bloomFilter);
+                log.info("商铺布隆过滤器重新加载完成，已加载商铺ID数量：{}，层数：{}", loaded, bloomFilter.getLayerCount());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // 加载本地镜像，并开始通过商铺变更流增量同步
+        shopBloomFilter.start();
+        // 布谷鸟过滤器（支持删除）在后台从数据库加载，同样通过商铺变更流增量同步
+        shopCuckooFilter.start();
+    }
+
+    /**
+     * 按id范围分批查询商铺id（where id > lastId order by id limit n），每批用一次pipeline写入布隆过滤器
+     *
+     * @return 写入的商铺id数量
+     */
+    private long loadAll(ScalableBloomFilter bloomFilter) {
+        long loaded = 0;
+        long lastId = 0;
+        while (true) {
+            List<Long> ids = shopService.query().select("id").gt("id", lastId).orderByAsc("id")
+                    .last("limit " + SHOP_BLOOM_BATCH_SIZE).list()
+                    .stream().map(Shop::getId).collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                return loaded;
+            }
+            bloomFilter.bulkAdd(ids);
+            loaded += ids.size();
+            lastId = ids.get(ids.size() - 1);
         }
-        
-        log.info("商铺布隆过滤器初始化完成，已加载商铺ID数量：{}", bloomFilter.count());
     }
 
     /**
@@ -64,16 +105,13 @@ public class BloomFilterDemo implements CommandLineRunner {
      * @return 商铺信息
      */
     public Shop queryShopWithBloomFilter(Long id) {
-        // 获取布隆过滤器
-        RBloomFilter<Long> bloomFilter = redissonClient.getBloomFilter(SHOP_BLOOM_FILTER);
-        
-        // 使用布隆过滤器方法查询商铺
+        // 使用布隆过滤器方法查询商铺（本地镜像判断，不访问Redis）
         return cacheClient.handCachePenetrationByBloomFilter(
                 SHOP_KEY, 
                 id, 
                 Shop.class, 
                 shopService::getById, 
-                bloomFilter, 
+                shopBloomFilter, 
                 SHOP_TTL, 
                 TimeUnit.MINUTES
         );
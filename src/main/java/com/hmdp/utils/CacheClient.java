@@ -1,22 +1,52 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RBloomFilter;
+import org.redisson.api.RLock;
+import org.redisson.api.RTopic;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -27,6 +57,8 @@ import static com.hmdp.utils.RedisConstants.*;
 /**
  * 方法1和方法3针对普通key
  * 方法2和方法4针对热点key
+ * 两级缓存：L1为进程内Caffeine缓存（容量+TTL淘汰），L2为Redis；各节点的L1通过Redis发布订阅的失效消息保持一致
+ * 写入Redis的字节格式由CacheCodec决定（默认二进制+LZ4，可读取旧的JSON数据）
  */
 
 public class CacheClient {
@@ -36,11 +68,276 @@ public class CacheClient {
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private CacheCodec cacheCodec;
+
+    /**
+     * L1本地缓存：key -> 解码后的RedisData（普通数据的expireTime为null），空值用NULL_VALUE占位
+     * 注意：缓存中的对象是共享的，调用方不要修改返回对象的字段
+     */
+    private final Cache<String, Object> localCache = Caffeine.newBuilder()
+            .maximumSize(CACHE_LOCAL_MAX_SIZE)
+            .expireAfterWrite(CACHE_LOCAL_TTL, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * L1中的空值占位对象（Caffeine不允许存null）
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private final CacheStats stats = new CacheStats();
+
+    /**
+     * 本节点内的请求合并：同一个key并发未命中时只有一个线程去加载
+     */
+    private final SingleFlight singleFlight = new SingleFlight(stats);
+
+    private RTopic invalidateTopic;
+
+    /**
+     * 概率提前刷新的系数，越大越早刷新；1.0为XFetch论文中的默认值
+     */
+    @Value("${hmdp.cache.xfetch-beta:1.0}")
+    private double xfetchBeta;
+
+    /**
+     * 影子副本在数据过期后继续保留的时间（秒），即最多返回多旧的数据
+     */
+    @Value("${hmdp.cache.max-staleness:600}")
+    private long maxStaleness;
+
+    /**
+     * 查询数据库的超时时间（毫秒），超时按查询失败处理
+     */
+    @Value("${hmdp.cache.db-timeout:1000}")
+    private long dbTimeout;
+
+    /**
+     * 缓存过期后是否先返回影子副本，再在后台重新查询数据库
+     */
+    @Value("${hmdp.cache.stale-while-revalidate:true}")
+    private boolean staleWhileRevalidate;
+
+    /**
+     * 热点key阈值：窗口内访问次数达到该值晋升为逻辑过期模式，降到冷却阈值以下时降级回TTL模式
+     */
+    @Value("${hmdp.cache.hot-key.threshold:200}")
+    private int hotKeyThreshold;
+
+    @Value("${hmdp.cache.hot-key.cool-threshold:50}")
+    private int hotKeyCoolThreshold;
+
+    /**
+     * 空值的最大有效期（秒），以及判定为区间扫描的阈值（每32个id中确认不存在的数量）
+     */
+    @Value("${hmdp.cache.negative.max-ttl:3600}")
+    private long negativeMaxTtl;
+
+    @Value("${hmdp.cache.negative.range-threshold:8}")
+    private int negativeRangeThreshold;
+
+    /**
+     * 负缓存：空值的自适应有效期与区间拒绝
+     */
+    private NegativeCache negativeCache;
+
+    private final HotKeyDetector hotKeyDetector = new HotKeyDetector(HOT_KEY_WINDOW_SLICES, TimeUnit.SECONDS.toMillis(HOT_KEY_SLICE_SECONDS));
+
+    /**
+     * 本节点已晋升的热点key -> 降级时恢复的TTL（秒）
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 定时检查热点key是否已经冷却
+     */
+    private final ScheduledExecutorService hotKeyScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-hot-key");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 查询数据库的线程池：用于实现查询超时，同时限制同一时间访问数据库的并发数，数据库变慢时不会拖垮所有请求线程
+     */
+    private final ThreadPoolExecutor dbExecutor = new ThreadPoolExecutor(CACHE_DB_THREADS, CACHE_DB_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(CACHE_DB_QUEUE_SIZE), r -> {
+                Thread thread = new Thread(r, "cache-db");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
-    //    方法1：将任意Java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间
+    /**
+     * 订阅失效频道：任意节点更新数据后广播key，所有节点（包括自己）清除本地缓存
+     */
+    @PostConstruct
+    private void init() {
+        // 监听器中会用到负缓存，必须先创建，否则启动期间收到的失效消息会抛出空指针
+        negativeCache = new NegativeCache(stringRedisTemplate, stats, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL),
+                negativeMaxTtl, negativeRangeThreshold);
+        invalidateTopic = redissonClient.getTopic(CACHE_INVALIDATE_TOPIC, StringCodec.INSTANCE);
+        invalidateTopic.addListener(String.class, (channel, key) -> {
+            localCache.invalidate(key);
+            negativeCache.invalidateLocal(key);
+        });
+        hotKeyScheduler.scheduleAtFixedRate(this::coolHotKeys, HOT_KEY_SLICE_SECONDS, HOT_KEY_SLICE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 删除缓存：删除Redis中的数据，并广播失效消息清除所有节点的本地缓存
+     *
+     * @param key 缓存key
+     */
+    public void evict(String key) {
+        // 影子副本也要删除，否则更新后仍可能返回更新前的数据
+        stringRedisTemplate.delete(Arrays.asList(key, CACHE_STALE_PREFIX + key));
+        localCache.invalidate(key);
+        invalidateTopic.publish(key);
+    }
+
+    /**
+     * 新增数据后调用：删除缓存中的空值，并清除负缓存的记录（自适应有效期的次数、区间拒绝表中的位）
+     * 否则新数据在空值或区间拒绝过期之前都查询不到
+     *
+     * @param keyPrefix 缓存key前缀
+     * @param id        新增数据的id
+     */
+    public <ID> void evictNegative(String keyPrefix, ID id) {
+        negativeCache.clear(keyPrefix + id, id);
+        evict(keyPrefix + id);
+    }
+
+    /**
+     * 获取各层缓存的命中计数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> snapshot = stats.snapshot();
+        snapshot.put("l1.size", localCache.estimatedSize());
+        rebuildExecutor.gauges(snapshot);
+        snapshot.put("db.active", (long) dbExecutor.getActiveCount());
+        snapshot.put("db.queue", (long) dbExecutor.getQueue().size());
+        snapshot.put("hotkey.size", (long) hotKeys.size());
+        return snapshot;
+    }
+
+    /**
+     * 查询L1本地缓存，并记录命中情况
+     *
+     * @return 缓存对象；空值返回NULL_VALUE；未命中返回null
+     */
+    private Object getLocal(String key) {
+        Object value = localCache.getIfPresent(key);
+        stats.incr(value != null ? "l1.hit" : "l1.miss");
+        return value;
+    }
+
+    /**
+     * 查询L2 Redis缓存并解码，结果回填L1
+     *
+     * @return 解码后的RedisData；空值返回NULL_VALUE；未命中（或数据无法解码）返回null
+     */
+    private <T> Object getRemote(String key, Class<T> type) {
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+        if (bytes == null) {
+            stats.incr("l2.miss");
+            return null;
+        }
+        // 空字节即之前写入的空值""，表示已经查询过数据库并确认数据不存在
+        Object entry = bytes.length == 0 ? NULL_VALUE : cacheCodec.decode(bytes, type);
+        if (entry == null) {
+            stats.incr("l2.miss");
+            return null;
+        }
+        stats.incr("l2.hit");
+        localCache.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * 以二进制方式写入Redis
+     *
+     * @param time 有效期，为null表示永久有效（逻辑过期）
+     */
+    private void setRaw(String key, byte[] value, Long time, TimeUnit unit) {
+        Expiration expiration = time == null ? Expiration.persistent() : Expiration.from(time, unit);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.stringCommands()
+                .set(key.getBytes(StandardCharsets.UTF_8), value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 查询影子副本（数据过期后的宽限期副本）
+     *
+     * @return 解码后的RedisData；不存在返回null
+     */
+    private <T> RedisData getStale(String key, Class<T> type) {
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get((CACHE_STALE_PREFIX + key).getBytes(StandardCharsets.UTF_8)));
+        return bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+    }
+
+    /**
+     * 用一次MGET批量查询影子副本
+     *
+     * @return id -> 过期数据，没有影子副本的id不放入Map
+     */
+    private <T,ID> Map<ID, T> getAllStale(String keyPrefix, List<ID> ids, Class<T> type) {
+        byte[][] staleKeys = new byte[ids.size()][];
+        for (int i = 0; i < staleKeys.length; i++) {
+            staleKeys[i] = (CACHE_STALE_PREFIX + keyPrefix + ids.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(staleKeys));
+        Map<ID, T> result = new HashMap<>();
+        for (int i = 0; values != null && i < ids.size(); i++) {
+            byte[] bytes = values.get(i);
+            RedisData stale = bytes == null || bytes.length == 0 ? null : cacheCodec.decode(bytes, type);
+            if (stale != null) {
+                result.put(ids.get(i), (T) stale.getData());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在数据库线程池中执行查询，超时或异常时抛出异常，由调用方决定是否返回影子副本
+     */
+    private <R> R callDb(Supplier<R> query) {
+        Future<R> future;
+        try {
+            future = dbExecutor.submit(query::get);
+        } catch (RejectedExecutionException e) {
+            stats.incr("db.rejected");
+            throw new IllegalStateException("查询数据库的请求过多", e);
+        }
+        try {
+            return future.get(dbTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            stats.incr("db.timeout");
+            throw new IllegalStateException("查询数据库超时", e);
+        } catch (ExecutionException e) {
+            stats.incr("db.error");
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 判断是否逻辑过期，普通数据（expireTime为null）没有逻辑过期时间
+     */
+    private static boolean isLogicalExpired(RedisData redisData) {
+        return redisData.getExpireTime() != null && !redisData.getExpireTime().isAfter(LocalDateTime.now());
+    }
+
+    //    方法1：将任意Java对象序列化并存储在string类型的key中，并且可以设置TTL过期时间
     /**
      * 将数据加入Redis，并设置有效期
      *
@@ -50,10 +347,21 @@ public class CacheClient {
      * @param unit  有效时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        byte[] bytes = cacheCodec.encode(value);
+        // 同时写入影子副本，有效期比数据多maxStaleness秒，数据库故障时返回它（两条命令通过pipeline一次发送）
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), bytes,
+                    Expiration.from(time, unit), RedisStringCommands.SetOption.upsert());
+            connection.stringCommands().set((CACHE_STALE_PREFIX + key).getBytes(StandardCharsets.UTF_8), bytes,
+                    Expiration.seconds(unit.toSeconds(time) + maxStaleness), RedisStringCommands.SetOption.upsert());
+            return null;
+        });
+        RedisData entry = new RedisData();
+        entry.setData(value);
+        localCache.put(key, entry);
     }
 
-    //    方法2：将任意Java对象序列化为json并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题（穿透是双不存在，击穿是库有缓无）
+    //    方法2：将任意Java对象序列化并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题（穿透是双不存在，击穿是库有缓无）
     /**
      * 将数据加入Redis，并设置逻辑过期时间（实际有效期为永久）
      *
@@ -63,12 +371,23 @@ public class CacheClient {
      * @param unit              时间单位
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * 将数据加入Redis，并设置逻辑过期时间，同时记录本次重建的耗时（概率提前刷新根据耗时计算刷新概率）
+     *
+     * @param rebuildCost 重建耗时（毫秒），为null表示未知
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildCost){
         //设置逻辑过期
         RedisData redisData = new RedisData();
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setRebuildCost(rebuildCost);
         //写入Redis - 使用redisData对象而不是原始值
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setRaw(key, cacheCodec.encodeLogical(redisData), null, null);
+        localCache.put(key, redisData);
     }
 
     //    方法3：根据指定的key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题（穿透是双不存在，击穿是库有缓无）
@@ -86,33 +405,120 @@ public class CacheClient {
      * @return
      */
     public <T,ID> T handCachePenetrationByBlankValue(String keyPrefix, ID id, Class<T> type, Function<ID,T> dbFallback, Long time, TimeUnit unit){
-        //        1.从Redis查询商铺缓存
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        //        1.先查L1本地缓存，未命中再从Redis查询商铺缓存（命中后回填L1）
+        Object entry = getLocal(key);
+        if (entry == null) {
+            entry = getRemote(key, type);
+        }
+        //        热点key降级前（或负责刷新的节点下线后）留下的逻辑过期数据已经过期，按未命中处理，重新加载为TTL数据
+        if (entry instanceof RedisData && isLogicalExpired((RedisData) entry)) {
+            entry = null;
+        }
 //        2.判断是否存在
-        if (StrUtil.isNotBlank(json)){
+        if (entry != null) {
             //        3.存在，直接返回商铺信息
-            T t = JSONUtil.toBean(json, type);
-            return t;
+            //        解决缓存穿透第二步：命中的是空值，表示之前已经查询过数据库并确认该商铺不存在
+            return entry == NULL_VALUE ? null : (T) ((RedisData) entry).getData();
         }
-//        解决缓存穿透第二步：判断redis缓存中是否命中了空值
-        if (json != null) {
-            //此时，我们已经知道 json 要么是 null，要么是空字符串（""）或只包含空白字符("\t\n")
-            //如果 json != null，那么它一定是空字符串或只包含空白字符，表示之前已经查询过数据库并确认该商铺不存在
-//            log.info("此时已经写入redis");
+//        解决缓存穿透第三步：id所在的区间正在被扫描，已经升级为区间拒绝，不再查询数据库
+        if (negativeCache.isDenied(key, id)) {
             return null;
         }
-//        4.不存在（仅有json==null的情况）则根据id查询数据库
-        T t = dbFallback.apply(id);
+//        4.不存在（仅有json==null的情况）则根据id查询数据库：并发请求合并为一次加载（解决缓存击穿）
 //        5.数据库中商铺不存在返回404  ->解决缓存穿透第一步：将空值写入redis并设置较短的有效期
-        if(t == null){
-            stringRedisTemplate.opsForValue().set(key, "",CACHE_NULL_TTL,TimeUnit.MINUTES);
-//            log.info("此时还未写入redis");
-            return null;
-        }
 //        6.如果商铺存在将商铺数据写入Redis   (超时剔除策略)
-        this.set(key,t,time,unit);
 //        7.返回商铺信息
+        return singleFlight.execute(key, () -> loadOrStale(key, id, type, dbFallback, time, unit));
+    }
+
+    /**
+     * 缓存未命中时（只由single-flight的leader调用）：
+     * 开启stale-while-revalidate且影子副本存在时，直接返回影子副本，并在后台重新查询数据库
+     * 否则同步加载数据
+     */
+    private <T,ID> T loadOrStale(String key, ID id, Class<T> type, Function<ID,T> dbFallback, Long time, TimeUnit unit) {
+        if (staleWhileRevalidate) {
+            RedisData stale = getStale(key, type);
+            if (stale != null) {
+                stats.incr("stale.revalidate");
+                rebuildExecutor.submit(key, () -> loadWithLock(key, id, type, dbFallback, time, unit));
+                return (T) stale.getData();
+            }
+        }
+        return loadWithLock(key, id, type, dbFallback, time, unit);
+    }
+
+    /**
+     * 缓存未命中时加载数据
+     * leader再获取跨节点的Redisson锁，保证多个节点同时未命中时也只有一个节点查询数据库
+     * Redisson的锁在等待时订阅解锁消息，不需要像queryWithMutex那样sleep后递归重试
+     *
+     * @param key        缓存key
+     * @param id         查询id
+     * @param type       查询数据的Class类型
+     * @param dbFallback 根据id查询数据的函数式接口
+     * @param time       有效期
+     * @param unit       时间单位
+     * @return 查询结果，不存在返回null
+     */
+    private <T,ID> T loadWithLock(String key, ID id, Class<T> type, Function<ID,T> dbFallback, Long time, TimeUnit unit) {
+        RLock lock = redissonClient.getLock(CACHE_LOAD_LOCK_PREFIX + key);
+        boolean isLock = false;
+        try {
+            isLock = lock.tryLock(CACHE_LOAD_LOCK_WAIT, CACHE_LOAD_LOCK_TTL, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (isLock) {
+                // DoubleCheck：等锁期间其他节点可能已经重建好了缓存
+                // 已经逻辑过期的数据（热点key降级前留下的）与入口处一样按未命中处理，否则永远不会被替换
+                Object entry = getRemote(key, type);
+                if (entry != null && !(entry instanceof RedisData && isLogicalExpired((RedisData) entry))) {
+                    return entry == NULL_VALUE ? null : (T) ((RedisData) entry).getData();
+                }
+            }
+            // 获取锁失败（等待超时）时降级为直接查询数据库，保证请求可用
+            return loadAndCache(key, id, type, dbFallback, time, unit);
+        } finally {
+            if (isLock) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 查询数据库并写入缓存，不存在时写入空值防止缓存穿透
+     * 数据库超时或异常时返回影子副本（stale-if-error），并放入L1，L1有效期内不再访问故障中的数据库
+     */
+    private <T,ID> T loadAndCache(String key, ID id, Class<T> type, Function<ID,T> dbFallback, Long time, TimeUnit unit) {
+        stats.incr("db.load");
+        T t;
+        try {
+            t = callDb(() -> dbFallback.apply(id));
+        } catch (RuntimeException e) {
+            RedisData stale = getStale(key, type);
+            if (stale == null) {
+                throw e;
+            }
+            stats.incr("stale.error");
+            log.warn("查询数据库失败，返回过期数据：{}", key, e);
+            localCache.put(key, stale);
+            return (T) stale.getData();
+        }
+        if (t == null) {
+            // 空值的有效期随确认不存在的次数增长；已经记录在区间拒绝表中时不再写入空值
+            long nullTtl = negativeCache.onMiss(key, id);
+            if (nullTtl > 0) {
+                setRaw(key, new byte[0], nullTtl, TimeUnit.SECONDS);
+                localCache.put(key, NULL_VALUE);
+            }
+            // 数据已不存在，影子副本一并删除，避免空值过期后又返回已删除的数据
+            stringRedisTemplate.delete(CACHE_STALE_PREFIX + key);
+            return null;
+        }
+        this.set(key, t, time, unit);
         return t;
     }
 
@@ -125,14 +531,14 @@ public class CacheClient {
      * @param id           查询id，与缓存key前缀拼接
      * @param type         查询数据的Class类型
      * @param dbFallback   根据id查询数据的函数式接口
-     * @param bloomFilter  布隆过滤器
+     * @param bloomFilter  存在性过滤器（布隆过滤器或支持删除的布谷鸟过滤器）
      * @param time         有效期
      * @param unit         时间单位
      * @param <T>
      * @param <ID>
      * @return
      */
-    public <T,ID> T handCachePenetrationByBloomFilter(String keyPrefix, ID id, Class<T> type, Function<ID,T> dbFallback, RBloomFilter<ID> bloomFilter, Long time, TimeUnit unit){
+    public <T,ID> T handCachePenetrationByBloomFilter(String keyPrefix, ID id, Class<T> type, Function<ID,T> dbFallback, MembershipFilter<ID> bloomFilter, Long time, TimeUnit unit){
         // 1.首先通过布隆过滤器判断id是否可能存在
         if (!bloomFilter.contains(id)) {
             // 布隆过滤器确定数据不存在，直接返回null，避免查询Redis和数据库
@@ -140,37 +546,178 @@ public class CacheClient {
             log.debug("通过布隆过滤器拦截不存在的数据：{}", id);
             return null;
         }
-        // 2.布隆过滤器判断数据可能存在，从Redis查询缓存
+        // 2.布隆过滤器判断数据可能存在，先查L1本地缓存，再从Redis查询缓存
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        Object entry = getLocal(key);
+        if (entry == null) {
+            entry = getRemote(key, type);
+        }
         // 3.判断缓存是否存在
-        if (StrUtil.isNotBlank(json)){
+        if (entry != null) {
             // 3.1 存在，直接返回数据
-            T t = JSONUtil.toBean(json, type);
-            return t;
-        }
-        // 3.2 判断是否命中空值（防止缓存穿透的兜底策略）
-        if (json != null) {
-            // 命中空值，表示之前已查询过数据库并确认数据不存在
-            // 此时json是空字符串或只包含空白字符
-            return null;
+            // 3.2 命中空值（防止缓存穿透的兜底策略），表示之前已查询过数据库并确认数据不存在
+            return entry == NULL_VALUE ? null : (T) ((RedisData) entry).getData();
         }
-        // 4.缓存未命中，查询数据库
-        T t = dbFallback.apply(id);
-        // 5.数据库中数据不存在
-        if(t == null){
-            // 5.1 将空值写入Redis，设置较短的过期时间，防止缓存穿透
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-
-            // 5.2 这里可以考虑从布隆过滤器中移除该ID，但布隆过滤器通常不支持删除操作
-            // 因为布隆过滤器是基于位图实现的，删除一个元素可能会影响其他元素的判断
-            // 所以我们接受布隆过滤器的误判，通过缓存空值来弥补
+        // 3.3 id所在的区间已经升级为区间拒绝
+        if (negativeCache.isDenied(key, id)) {
             return null;
         }
+        // 4.缓存未命中，查询数据库（并发请求合并为一次加载）
+        // 5.数据库中数据不存在：将空值写入Redis，设置较短的过期时间，防止缓存穿透
+        //   布隆过滤器基于位图实现，不支持删除（清除一位会影响其他元素的判断），已删除的id会一直通过过滤器，只能靠缓存空值来弥补
+        //   需要删除的场景使用支持删除的过滤器（如ShopCuckooFilter，布谷鸟过滤器），删除数据时同步从过滤器中移除
         // 6.数据库中数据存在，将数据写入Redis
-        this.set(key, t, time, unit);
         // 7.返回数据
-        return t;
+        return singleFlight.execute(key, () -> loadOrStale(key, id, type, dbFallback, time, unit));
+    }
+
+    /**
+     * 根据id查询数据（使用Redisson布隆过滤器+空值法解决缓存穿透），每次判断都要访问一次Redis
+     *
+     * @see #handCachePenetrationByBloomFilter(String, Object, Class, Function, MembershipFilter, Long, TimeUnit)
+     */
+    public <T,ID> T handCachePenetrationByBloomFilter(String keyPrefix, ID id, Class<T> type, Function<ID,T> dbFallback, RBloomFilter<ID> bloomFilter, Long time, TimeUnit unit){
+        return handCachePenetrationByBloomFilter(keyPrefix, id, type, dbFallback, MembershipFilter.of(bloomFilter), time, unit);
+    }
+
+    /**
+     * 批量查询数据（缓存空值法解决缓存穿透），不使用布隆过滤器
+     *
+     * @see #getAll(String, Collection, Class, Function, MembershipFilter, Long, TimeUnit)
+     */
+    public <T,ID> List<T> getAll(String keyPrefix, Collection<ID> ids, Class<T> type, Function<Collection<ID>, Map<ID,T>> bulkDbFallback, Long time, TimeUnit unit){
+        return getAll(keyPrefix, ids, type, bulkDbFallback, null, time, unit);
+    }
+
+    /**
+     * 批量查询数据：用于Feed流、热门笔记、附近商铺等按id列表查询的场景
+     * 先查L1，L1未命中的key合并为一次MGET查询Redis，Redis也未命中的id合并为一次数据库查询，
+     * 查询结果通过pipeline一次性写回Redis，数据库中不存在的id写入空值
+     * 每个id依然享有布隆过滤器+空值的穿透防护，与单个查询的语义一致
+     *
+     * @param keyPrefix      缓存key前缀
+     * @param ids            查询id列表
+     * @param type           查询数据的Class类型
+     * @param bulkDbFallback 根据id集合批量查询数据的函数式接口，返回 id -> 数据（不存在的id不放入Map）
+     * @param bloomFilter    布隆过滤器，为null表示不使用
+     * @param time           有效期
+     * @param unit           时间单位
+     * @return 与ids顺序一致的数据列表，不存在的id被跳过
+     */
+    public <T,ID> List<T> getAll(String keyPrefix, Collection<ID> ids, Class<T> type, Function<Collection<ID>, Map<ID,T>> bulkDbFallback, MembershipFilter<ID> bloomFilter, Long time, TimeUnit unit){
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.先查L1本地缓存，记录未命中的id（布隆过滤器判断不存在的id直接跳过）
+        Map<ID, T> found = new HashMap<>(ids.size());
+        List<ID> remoteIds = new ArrayList<>();
+        Set<ID> seen = new HashSet<>(ids.size());
+        for (ID id : ids) {
+            if (!seen.add(id)) {
+                continue;
+            }
+            if (bloomFilter != null && !bloomFilter.contains(id)) {
+                log.debug("通过布隆过滤器拦截不存在的数据：{}", id);
+                continue;
+            }
+            Object entry = getLocal(keyPrefix + id);
+            if (entry == null) {
+                remoteIds.add(id);
+            } else if (entry != NULL_VALUE) {
+                found.put(id, (T) ((RedisData) entry).getData());
+            }
+        }
+        // 2.L1未命中的key合并为一次MGET查询Redis
+        List<ID> dbIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            byte[][] rawKeys = new byte[remoteIds.size()][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = (keyPrefix + remoteIds.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.stringCommands().mGet(rawKeys));
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                // 空字节即空值，表示已经查询过数据库并确认数据不存在
+                Object entry = bytes == null ? null : bytes.length == 0 ? NULL_VALUE : cacheCodec.decode(bytes, type);
+                if (entry == null) {
+                    stats.incr("l2.miss");
+                    if (!negativeCache.isDenied(keyPrefix + id, id)) {
+                        dbIds.add(id);
+                    }
+                    continue;
+                }
+                stats.incr("l2.hit");
+                localCache.put(keyPrefix + id, entry);
+                if (entry != NULL_VALUE) {
+                    found.put(id, (T) ((RedisData) entry).getData());
+                }
+            }
+        }
+        // 3.Redis也未命中的id合并为一次数据库查询，并通过pipeline写回Redis
+        if (!dbIds.isEmpty()) {
+            stats.incr("db.bulkLoad");
+            stats.add("db.load", dbIds.size());
+            Map<ID, T> loaded;
+            try {
+                loaded = callDb(() -> bulkDbFallback.apply(dbIds));
+            } catch (RuntimeException e) {
+                // 数据库超时或异常：返回影子副本中能找到的数据，不写回缓存（也不能写入空值）
+                log.warn("批量查询数据库失败，返回过期数据：{}", keyPrefix, e);
+                Map<ID, T> stale = getAllStale(keyPrefix, dbIds, type);
+                stats.add("stale.error", stale.size());
+                found.putAll(stale);
+                loaded = null;
+            }
+            if (loaded != null) {
+                Map<ID, T> result = loaded;
+                // 不存在的id先确定空值的有效期（0表示已经记录在区间拒绝表中），pipeline中不能再执行其他Redis命令
+                Map<ID, Long> nullTtls = new HashMap<>();
+                for (ID id : dbIds) {
+                    if (result.get(id) == null) {
+                        nullTtls.put(id, negativeCache.onMiss(keyPrefix + id, id));
+                    }
+                }
+                long staleSeconds = unit.toSeconds(time) + maxStaleness;
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (ID id : dbIds) {
+                        byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                        T t = result.get(id);
+                        if (t == null) {
+                            // 数据库中不存在：写入空值（有效期随确认不存在的次数增长），防止缓存穿透
+                            long nullTtl = nullTtls.get(id);
+                            if (nullTtl > 0) {
+                                connection.stringCommands().set(rawKey, new byte[0],
+                                        Expiration.seconds(nullTtl), RedisStringCommands.SetOption.upsert());
+                                localCache.put(keyPrefix + id, NULL_VALUE);
+                            }
+                            connection.keyCommands().del((CACHE_STALE_PREFIX + keyPrefix + id).getBytes(StandardCharsets.UTF_8));
+                            continue;
+                        }
+                        byte[] bytes = cacheCodec.encode(t);
+                        connection.stringCommands().set(rawKey, bytes,
+                                Expiration.from(time, unit), RedisStringCommands.SetOption.upsert());
+                        connection.stringCommands().set((CACHE_STALE_PREFIX + keyPrefix + id).getBytes(StandardCharsets.UTF_8), bytes,
+                                Expiration.seconds(staleSeconds), RedisStringCommands.SetOption.upsert());
+                        RedisData entry = new RedisData();
+                        entry.setData(t);
+                        localCache.put(keyPrefix + id, entry);
+                        found.put(id, t);
+                    }
+                    return null;
+                });
+            }
+        }
+        // 4.按照传入id的顺序组装结果
+        List<T> list = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            T t = found.get(id);
+            if (t != null) {
+                list.add(t);
+            }
+        }
+        return list;
     }
 
     //    方法4：根据指定的key查询缓存，并反序列化为指定类型，需要利用逻辑过期解决缓存击穿问题（穿透是双不存在，击穿是库有缓无）
@@ -178,28 +725,46 @@ public class CacheClient {
     /**
      * 尝试获取锁，判断是否获取锁成功
      * setIfAbsent()：如果缺失不存在这个key，则可以set，返回true；存在key不能set，返回false。相当于setnx命令
+     * 锁的值为本次加锁生成的随机标识，重建在其他线程中完成，所以不能像SimpleRedisLock那样用线程id作为标识
      * @param lockKey 互斥锁的key
-     * @return 是否获取到锁
+     * @return 获取成功返回锁标识，失败返回null
      */
 
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);//防止Boolean->boolean过程中出现空指针异常
+    private String tryLock(String key){
+        String token = UUID.randomUUID().toString(true);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, token, LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(flag) ? token : null;//防止Boolean->boolean过程中出现空指针异常
     }
 
     /**
-     * 释放互斥锁
+     * 释放互斥锁：通过lua脚本判断锁标识一致才删除
+     * 重建任务可能在队列中等待超过锁的有效期，锁过期后被其他线程获取，直接delete会误删别人的锁
      * @param lockKey 互斥锁的key
+     * @param token   获取锁时返回的标识
      */
 
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
+    private void unlock(String key, String token){
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), token);
+    }
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
     }
 
     /**
-     * 缓存重建线程池
+     * 缓存重建线程池（有界队列+按key去重）
      */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final CacheRebuildExecutor rebuildExecutor = new CacheRebuildExecutor(CACHE_REBUILD_THREADS, CACHE_REBUILD_QUEUE_SIZE, stats);
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdown();
+        dbExecutor.shutdown();
+        hotKeyScheduler.shutdown();
+    }
 
     /**
      * 根据id查询热点数据（使用逻辑过期解决缓存击穿）
@@ -216,61 +781,210 @@ public class CacheClient {
      * @return
      */
     public <T,ID> T handCacheBreakdownByLogicalExpire(String cachekeyPrefix, ID id, Class<T> type, String lockKeyPrefix, Function<ID,T> dbFallback, Long time, TimeUnit unit){
-        // 从缓存中获取热点数据
         String cacheKey = cachekeyPrefix+ id;
-        String json = stringRedisTemplate.opsForValue().get(cacheKey);
+        // 先查L1本地缓存：本地数据未逻辑过期则直接返回；已过期则继续走Redis判断是否需要重建
+        Object local = getLocal(cacheKey);
+        if (local instanceof RedisData && !isLogicalExpired((RedisData) local)) {
+            return (T) ((RedisData) local).getData();
+        }
+        // 从缓存中获取热点数据（解码后即为逻辑过期对象，data已经是目标类型，回填L1）
+        Object entry = getRemote(cacheKey, type);
 //        // 判断缓存是否命中（由于是热点数据，提前进行缓存预热，默认缓存一定会命中）
-        if (StrUtil.isBlank(json)){
+        if (!(entry instanceof RedisData)){
             // 缓存未命中，说明查到的不是热点key，直接返回空
             return null;
         }
-        //        // 缓存命中，先把json反序列化为逻辑过期对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject Data = (JSONObject) redisData.getData();
-        // 将Object对象转成JSONObject再反序列化为目标对象
-        T t = (T) JSONUtil.toBean(Data, type);
+        RedisData redisData = (RedisData) entry;
+        T t = (T) redisData.getData();
 
         // 判断是否逻辑过期
-        LocalDateTime expireTime = redisData.getExpireTime();
-        if (expireTime.isAfter(LocalDateTime.now())){
+        if (!isLogicalExpired(redisData)){
             // 未过期：直接返回正确数据
             return t;
         }
         // 已过期，先尝试获取互斥锁，再判断是否需要缓存重建
         String lockKey = lockKeyPrefix + id;
-        boolean isLock = tryLock(lockKey);
+        String token = tryLock(lockKey);
         // 判断是否获取锁
-        if (isLock){
+        if (token != null){
             // 在线程1重建缓存期间，线程2进行过期判断，假设此时key是过期状态，线程1重建完成并释放锁，线程2立刻获取锁，并启动异步线程执行重建，那此时的重建就与线程1的重建重复了
             // 因此需要在线程2获取锁成功后，在这里再次检测redis中缓存是否过期（DoubleCheck），如果未过期则无需重建缓存，防止数据过期之后，刚释放锁就有线程拿到锁的情况，重复访问数据库进行重建
-            json = stringRedisTemplate.opsForValue().get(cacheKey);
-            // 缓存命中，先把json反序列化为逻辑过期对象
-            redisData = JSONUtil.toBean(json, RedisData.class);
-            // 将Object对象转成JSONObject再反序列化为目标对象
-            t = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            entry = getRemote(cacheKey, type);
             // 判断是否逻辑过期
-            if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            if (entry instanceof RedisData && !isLogicalExpired((RedisData) entry)) {
                 // 命中且未过期，直接返回新数据
-                return t;
+                unlock(lockKey, token);
+                return (T) ((RedisData) entry).getData();
             }
             // 获取锁成功，开启一个独立子线程去重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                //重建缓存
-                try {
-                    // 查询数据库
-                    T t1 = dbFallback.apply(id);
-                    // 写入redis
-                    this.setWithLogicalExpire(cacheKey, t1, time, unit);
-                } catch (Exception e) {
-                    log.error("缓存重建异常", e);
-                } finally {
-                    //释放锁
-                    unlock(lockKey);
-                }
-            });
+            rebuildAsync(cacheKey, id, lockKey, token, dbFallback, time, unit);
+        }
+        // 获取锁失败（或重建任务被拒绝），直接返回过期的旧数据
+        return t;
+    }
+
+    /**
+     * 开启一个独立子线程重建缓存（调用前必须已经获取互斥锁，重建结束后释放）
+     * 同时记录查询数据库的耗时，写入逻辑过期数据中
+     * 线程池队列已满或本节点已有该key的重建任务时不提交，立即释放锁，调用方继续返回旧数据
+     */
+    private <T,ID> void rebuildAsync(String cacheKey, ID id, String lockKey, String token, Function<ID,T> dbFallback, Long time, TimeUnit unit) {
+        boolean submitted = rebuildExecutor.submit(cacheKey, () -> {
+            //重建缓存
+            try {
+                // 查询数据库，并记录耗时
+                stats.incr("db.load");
+                long begin = System.currentTimeMillis();
+                T t1 = callDb(() -> dbFallback.apply(id));
+                long cost = System.currentTimeMillis() - begin;
+                // 写入redis
+                this.setWithLogicalExpire(cacheKey, t1, time, unit, cost);
+            } finally {
+                //释放锁
+                unlock(lockKey, token);
+            }
+        });
+        if (!submitted) {
+            unlock(lockKey, token);
+        }
+    }
+
+    /**
+     * 概率提前刷新（XFetch）：距离逻辑过期越近、重建耗时越长，读请求触发后台刷新的概率越大
+     * 判断条件：now - rebuildCost * beta * ln(random) >= expireTime
+     * 热点key会在过期之前被某个读请求平滑地刷新，不会所有请求都在过期的那一刻同时发现过期
+     */
+    private boolean shouldEarlyRefresh(RedisData redisData) {
+        if (redisData.getExpireTime() == null) {
+            // 普通数据没有逻辑过期时间，由TTL淘汰
+            return false;
+        }
+        long cost = redisData.getRebuildCost() != null ? redisData.getRebuildCost() : CACHE_REBUILD_COST_DEFAULT;
+        double gap = cost * xfetchBeta * -Math.log(ThreadLocalRandom.current().nextDouble());
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return System.currentTimeMillis() + gap >= expireAt;
+    }
+
+    /**
+     * 根据id查询热点数据（逻辑过期+概率提前刷新）
+     * 与handCacheBreakdownByLogicalExpire的区别：不等到逻辑过期才重建，而是在过期之前按概率触发后台刷新
+     *
+     * @param cachekeyPrefix    缓存key前缀
+     * @param id                查询id，与缓存key前缀拼接
+     * @param type              查询数据的Class类型
+     * @param lockKeyPrefix     缓存数据锁前缀，与查询id拼接
+     * @param dbFallback        根据id查询数据的函数式接口
+     * @param time              逻辑过期时间
+     * @param unit              时间单位
+     * @return 缓存未命中（不是热点key）返回null
+     */
+    public <T,ID> T handCacheBreakdownByEarlyRefresh(String cachekeyPrefix, ID id, Class<T> type, String lockKeyPrefix, Function<ID,T> dbFallback, Long time, TimeUnit unit){
+        String cacheKey = cachekeyPrefix + id;
+        // 1.先查L1本地缓存，未命中再查Redis
+        Object entry = getLocal(cacheKey);
+        if (!(entry instanceof RedisData)) {
+            entry = getRemote(cacheKey, type);
+        }
+        if (!(entry instanceof RedisData)) {
+            // 缓存未命中，说明查到的不是热点key，直接返回空
+            return null;
+        }
+        RedisData redisData = (RedisData) entry;
+        T t = (T) redisData.getData();
+        // 2.按概率判断是否需要提前刷新，不需要则直接返回
+        if (!shouldEarlyRefresh(redisData)) {
+            return t;
         }
-        // 获取锁失败，直接返回过期的旧数据
+        stats.incr(isLogicalExpired(redisData) ? "xfetch.expired" : "xfetch.early");
+        // 3.需要刷新：获取互斥锁，保证同一时间只有一个线程重建
+        String lockKey = lockKeyPrefix + id;
+        String token = tryLock(lockKey);
+        if (token != null) {
+            // DoubleCheck：L1中的数据可能比Redis旧，Redis中的数据已经被其他节点刷新过则无需重建
+            Object latest = getRemote(cacheKey, type);
+            if (latest instanceof RedisData && ((RedisData) latest).getExpireTime() != null
+                    && ((RedisData) latest).getExpireTime().isAfter(redisData.getExpireTime())) {
+                unlock(lockKey, token);
+                return (T) ((RedisData) latest).getData();
+            }
+            rebuildAsync(cacheKey, id, lockKey, token, dbFallback, time, unit);
+        }
+        // 4.刷新在后台进行，当前请求直接返回现有数据
         return t;
     }
 
+    /**
+     * 根据id查询数据（自动识别热点key）
+     * 每次读取都记录到热点探测器中：
+     * 1.普通key走缓存空值法（TTL模式）
+     * 2.访问次数超过阈值的key晋升为热点key：后台预热为逻辑过期数据，之后走逻辑过期+概率提前刷新，不会因为过期而击穿
+     * 3.热点key冷却后降级：给逻辑过期数据设置TTL，到期后自然回到TTL模式
+     *
+     * @param keyPrefix     缓存key前缀
+     * @param id            查询id，与缓存key前缀拼接
+     * @param type          查询数据的Class类型
+     * @param lockKeyPrefix 缓存重建锁前缀，与查询id拼接
+     * @param dbFallback    根据id查询数据的函数式接口
+     * @param time          有效期（TTL模式的有效期，同时也是逻辑过期时间）
+     * @param unit          时间单位
+     * @return 查询结果，不存在返回null
+     */
+    public <T,ID> T handCacheAdaptive(String keyPrefix, ID id, Class<T> type, String lockKeyPrefix, Function<ID,T> dbFallback, Long time, TimeUnit unit){
+        String key = keyPrefix + id;
+        int count = hotKeyDetector.record(key);
+        if (!hotKeys.containsKey(key)) {
+            if (count >= hotKeyThreshold && hotKeys.putIfAbsent(key, unit.toSeconds(time)) == null) {
+                // 晋升为热点key：后台预热为逻辑过期数据，当前请求仍按普通key处理
+                stats.incr("hotkey.promoted");
+                log.info("热点key晋升为逻辑过期模式：{}，窗口内访问次数：{}", key, count);
+                rebuildExecutor.submit(key, () -> warmUp(key, id, dbFallback, time, unit));
+            }
+            return handCachePenetrationByBlankValue(keyPrefix, id, type, dbFallback, time, unit);
+        }
+        // 热点key：逻辑过期+概率提前刷新
+        T t = handCacheBreakdownByEarlyRefresh(keyPrefix, id, type, lockKeyPrefix, dbFallback, time, unit);
+        if (t != null) {
+            return t;
+        }
+        // 热点数据在Redis中不存在（例如更新后被删除）：按普通key加载，再重新写成逻辑过期数据
+        t = handCachePenetrationByBlankValue(keyPrefix, id, type, dbFallback, time, unit);
+        if (t != null) {
+            setWithLogicalExpire(key, t, time, unit);
+        }
+        return t;
+    }
+
+    /**
+     * 预热热点key：查询数据库并写入逻辑过期数据
+     */
+    private <T,ID> void warmUp(String key, ID id, Function<ID,T> dbFallback, Long time, TimeUnit unit) {
+        stats.incr("db.load");
+        long begin = System.currentTimeMillis();
+        T t = callDb(() -> dbFallback.apply(id));
+        if (t != null) {
+            setWithLogicalExpire(key, t, time, unit, System.currentTimeMillis() - begin);
+        }
+    }
+
+    /**
+     * 定时任务：窗口内访问次数降到冷却阈值以下的热点key降级回TTL模式
+     * 只给Redis中的逻辑过期数据设置TTL，不删除数据；到期之前其他请求仍然可以读取
+     */
+    private void coolHotKeys() {
+        try {
+            for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+                String key = entry.getKey();
+                if (hotKeyDetector.estimate(key) >= hotKeyCoolThreshold) {
+                    continue;
+                }
+                hotKeys.remove(key);
+                stringRedisTemplate.expire(key, entry.getValue(), TimeUnit.SECONDS);
+                stats.incr("hotkey.demoted");
+                log.info("热点key已冷却，降级为TTL模式：{}", key);
+            }
+        } catch (Exception e) {
+            log.error("热点key降级异常", e);
+        }
+    }
+
 }
@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码器（SPI）
+ * CacheClient只负责缓存策略，写入Redis的字节格式由编解码器决定，可以在CacheConfig中替换实现
+ * 解码统一返回RedisData：expireTime为null表示普通（TTL）数据，不为null表示逻辑过期数据
+ * 这样同一个key无论以哪种方式写入，两种查询方法都能读出来
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通数据（配合TTL使用）
+     *
+     * @param value 缓存数据值
+     * @return 写入Redis的字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 编码逻辑过期数据
+     *
+     * @param redisData 带逻辑过期时间的数据
+     * @return 写入Redis的字节
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码Redis中的数据
+     *
+     * @param bytes Redis中读出的字节（非空）
+     * @param type  数据的Class类型
+     * @return 解码后的数据，data已经是type类型；无法解码（例如实体结构已变化）时返回null，调用方按未命中处理
+     */
+    <T> RedisData decode(byte[] bytes, Class<T> type);
+}
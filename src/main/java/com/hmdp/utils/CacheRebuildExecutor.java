@@ -0,0 +1,102 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * 缓存重建线程池
+ * 原来的Executors.newFixedThreadPool(10)使用无界队列，大量key同时逻辑过期时会堆积成千上万个重建任务
+ * 1.有界队列：队列满时拒绝提交，调用方继续返回旧数据，等下一次读请求再触发重建
+ * 2.按key去重：同一个key在本节点已经有重建任务（排队或执行中）时不再重复提交
+ * 3.记录提交/去重/拒绝/成功/失败次数与重建耗时，队列长度等指标通过gauges()查看
+ */
+@Slf4j
+public class CacheRebuildExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 正在排队或执行中的key
+     */
+    private final Set<String> inflight = ConcurrentHashMap.newKeySet();
+
+    private final CacheStats stats;
+
+    private final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+    public CacheRebuildExecutor(int threads, int queueCapacity, CacheStats stats) {
+        this.stats = stats;
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key  缓存key，用于去重
+     * @param task 重建任务
+     * @return 是否提交成功；false表示已有相同key的任务或队列已满，调用方应释放锁并返回旧数据
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!inflight.add(key)) {
+            stats.incr("rebuild.deduped");
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task));
+        } catch (RejectedExecutionException e) {
+            inflight.remove(key);
+            stats.incr("rebuild.rejected");
+            log.warn("缓存重建队列已满，本次不重建：{}", key);
+            return false;
+        }
+        stats.incr("rebuild.submitted");
+        return true;
+    }
+
+    private void run(String key, Runnable task) {
+        long begin = System.currentTimeMillis();
+        try {
+            task.run();
+            stats.incr("rebuild.success");
+        } catch (Exception e) {
+            stats.incr("rebuild.failed");
+            log.error("缓存重建异常：{}", key, e);
+        } finally {
+            long cost = System.currentTimeMillis() - begin;
+            stats.add("rebuild.latency.total", cost);
+            maxLatency.accumulate(cost);
+            inflight.remove(key);
+        }
+    }
+
+    /**
+     * 当前线程池状态：队列长度、活跃线程数、进行中的key数量、最大重建耗时（毫秒）
+     */
+    public void gauges(Map<String, Long> snapshot) {
+        snapshot.put("rebuild.queue", (long) executor.getQueue().size());
+        snapshot.put("rebuild.active", (long) executor.getActiveCount());
+        snapshot.put("rebuild.inflight", (long) inflight.size());
+        snapshot.put("rebuild.latency.max", maxLatency.get());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存计数器
+ * 按名称累加，例如 l1.hit / l1.miss / l2.hit / l2.miss / db.load，用于观察每一层缓存的命中与卸载情况
+ * 使用LongAdder而不是AtomicLong，高并发下各线程写不同的cell，避免在同一个变量上CAS自旋
+ */
+public class CacheStats {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public void incr(String name) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    public void add(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * 获取当前所有计数器的快照（按名称排序，便于查看）
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, adder) -> snapshot.put(name, adder.sum()));
+        return snapshot;
+    }
+}
@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的位图：读操作无锁，写操作（很少发生）加锁，按需扩容
+ */
+public class ConcurrentBitSet {
+
+    private volatile AtomicLongArray words = new AtomicLongArray(16);
+
+    public boolean get(long index) {
+        AtomicLongArray current = words;
+        int word = (int) (index >>> 6);
+        return word < current.length() && (current.get(word) & (1L << index)) != 0;
+    }
+
+    public synchronized void set(long index) {
+        int word = (int) (index >>> 6);
+        if (word >= words.length()) {
+            // 扩容：复制到更大的数组后替换引用
+            AtomicLongArray grown = new AtomicLongArray(Math.max(words.length() * 2, word + 1));
+            for (int i = 0; i < words.length(); i++) {
+                grown.set(i, words.get(i));
+            }
+            words = grown;
+        }
+        words.set(word, words.get(word) | (1L << index));
+    }
+
+    public synchronized void clear(long index) {
+        int word = (int) (index >>> 6);
+        if (word < words.length()) {
+            words.set(word, words.get(word) & ~(1L << index));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 布谷鸟过滤器（Cuckoo Filter），与布隆过滤器一样用很少的内存判断元素是否可能存在，但支持删除
+ * 1.每个元素只保存一个16位指纹，可以放在两个候选桶之一（每桶4个槽位）：i1 = hash & mask，i2 = i1 ^ hash(指纹)
+ * 2.两个桶都满时随机踢出一个指纹，把它挪到它的另一个候选桶，最多踢MAX_KICKS次
+ * 3.删除时在两个候选桶中移除一个相同的指纹，所以删除的元素必须是之前添加过的，否则可能误删其他元素的指纹
+ * 4.踢了MAX_KICKS次仍然无处安放的指纹连同桶号放入溢出集合，溢出说明容量不足，需要按更大的容量重建
+ * 读操作使用StampedLock的乐观读：不加锁读取，读取期间有写操作（踢出挪动指纹）时再加读锁重读，避免读到挪动中间的状态
+ */
+public class CuckooFilter {
+
+    private static final int SLOTS = 4;
+    private static final int MAX_KICKS = 500;
+
+    /**
+     * 桶数量（2的幂）的掩码
+     */
+    private final int mask;
+
+    /**
+     * 指纹表，第i个桶的槽位是 [i*4, i*4+4)，0表示空槽
+     */
+    private final short[] table;
+
+    /**
+     * 溢出集合：踢了MAX_KICKS次仍然无处安放的指纹，保存为 (候选桶号 << 16 | 指纹)
+     */
+    private final Set<Long> overflow = new HashSet<>();
+
+    private volatile int overflowSize;
+
+    private final StampedLock lock = new StampedLock();
+
+    private long count;
+
+    /**
+     * @param capacity 预计元素数量（按95%的装载率计算桶数量）
+     */
+    public CuckooFilter(long capacity) {
+        long buckets = Long.highestOneBit(Math.max((long) (capacity / 0.95 / SLOTS), 1L) * 2 - 1);
+        if (buckets > (1 << 28)) {
+            throw new IllegalArgumentException("容量过大：" + capacity);
+        }
+        this.mask = (int) buckets - 1;
+        this.table = new short[(int) buckets * SLOTS];
+    }
+
+    public boolean contains(long value) {
+        long hash = hash(value);
+        short fp = fingerprint(hash);
+        int i1 = index1(hash);
+        int i2 = index2(i1, fp);
+        long stamp = lock.tryOptimisticRead();
+        boolean found = inBucket(i1, fp) || inBucket(i2, fp);
+        // 乐观读期间没有写操作，并且命中或者溢出集合为空（绝大多数情况），结果可信，不需要加锁
+        if (lock.validate(stamp) && (found || overflowSize == 0)) {
+            return found;
+        }
+        stamp = lock.readLock();
+        try {
+            return inBucket(i1, fp) || inBucket(i2, fp)
+                    || overflow.contains(stashKey(i1, fp)) || overflow.contains(stashKey(i2, fp));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void add(long value) {
+        long hash = hash(value);
+        short fp = fingerprint(hash);
+        int i1 = index1(hash);
+        int i2 = index2(i1, fp);
+        long stamp = lock.writeLock();
+        try {
+            count++;
+            if (putInBucket(i1, fp) || putInBucket(i2, fp)) {
+                return;
+            }
+            // 两个桶都满了：随机踢出一个指纹，挪到它的另一个候选桶
+            int index = ThreadLocalRandom.current().nextBoolean() ? i1 : i2;
+            for (int kick = 0; kick < MAX_KICKS; kick++) {
+                int slot = index * SLOTS + ThreadLocalRandom.current().nextInt(SLOTS);
+                short victim = table[slot];
+                table[slot] = fp;
+                fp = victim;
+                index = index2(index, fp);
+                if (putInBucket(index, fp)) {
+                    return;
+                }
+            }
+            // 放不下：最后被踢出的指纹属于某个已存在的元素（元素本身未知），连同它所在的候选桶号一起放入溢出集合
+            overflow.add(stashKey(index, fp));
+            overflowSize = overflow.size();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 删除元素（元素必须是之前添加过的）
+     *
+     * @return 是否找到并删除
+     */
+    public boolean remove(long value) {
+        long hash = hash(value);
+        short fp = fingerprint(hash);
+        int i1 = index1(hash);
+        int i2 = index2(i1, fp);
+        long stamp = lock.writeLock();
+        try {
+            if (removeFromBucket(i1, fp) || removeFromBucket(i2, fp)
+                    || overflow.remove(stashKey(i1, fp)) || overflow.remove(stashKey(i2, fp))) {
+                count--;
+                overflowSize = overflow.size();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * 溢出集合中的指纹数量，不为0说明装载率已经接近上限，应按更大的容量重建
+     */
+    public int overflowSize() {
+        return overflowSize;
+    }
+
+    private static long stashKey(int bucket, short fp) {
+        return ((long) bucket << 16) | (fp & 0xFFFF);
+    }
+
+    private boolean inBucket(int bucket, short fp) {
+        int base = bucket * SLOTS;
+        return table[base] == fp || table[base + 1] == fp || table[base + 2] == fp || table[base + 3] == fp;
+    }
+
+    private boolean putInBucket(int bucket, short fp) {
+        int base = bucket * SLOTS;
+        for (int i = base; i < base + SLOTS; i++) {
+            if (table[i] == 0) {
+                table[i] = fp;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeFromBucket(int bucket, short fp) {
+        int base = bucket * SLOTS;
+        for (int i = base; i < base + SLOTS; i++) {
+            if (table[i] == fp) {
+                table[i] = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int index1(long hash) {
+        return (int) hash & mask;
+    }
+
+    private int index2(int index, short fp) {
+        return (index ^ (int) mix(fp)) & mask;
+    }
+
+    /**
+     * 取哈希值的高16位作为指纹，0表示空槽，所以指纹不能为0
+     */
+    private static short fingerprint(long hash) {
+        short fp = (short) (hash >>> 48);
+        return fp == 0 ? 1 : fp;
+    }
+
+    private static long hash(long value) {
+        return mix(value);
+    }
+
+    /**
+     * MurmurHash3的64位混合函数
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,296 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * Feed流异步推送：发布笔记时只写入一条推送任务，由后台线程把笔记id推送到粉丝的收件箱，发布请求不再随粉丝数变慢
+ * 1.任务保存在Redis Stream（stream.feed.fanout）中，消费者组保证每个任务只被一个线程处理，节点崩溃后任务留在pending-list中
+ * 2.处理任务：按tb_follow的主键游标分页查询粉丝（每页batchSize个），每页用管道批量ZADD并裁剪收件箱（FeedInbox），
+ *   每页处理完把游标写入进度表（feed:fanout:progress），重新处理时从上次的游标继续，不从头推送
+ *   （ZADD相同的成员与分数是幂等的，最后一页重复推送也没有影响）
+ * 3.推送过程中每页用XCLAIM续期一次任务（重置空闲时间）；空闲时间超过FEED_FANOUT_RECLAIM_IDLE的任务由其他线程/节点接管
+ * 4.粉丝数达到推送阈值时把作者记为大V，笔记写入作者的发件箱，剩余的粉丝不再推送（读取时会拉取发件箱）
+ */
+@Slf4j
+@Component
+public class FeedFanout {
+
+    private static final String GROUP_NAME = "g1";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private FeedInbox feedInbox;
+
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private int pushThreshold;
+
+    @Value("${hmdp.feed.fanout.batch-size:2000}")
+    private int batchSize;
+
+    @Value("${hmdp.feed.fanout.consumers:2}")
+    private int consumers;
+
+    private ExecutorService fanoutExecutor;
+
+    private final ScheduledExecutorService reclaimExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "feed-fanout-reclaim");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running;
+
+    // 本节点接管任务时使用的消费者名称
+    private String reclaimer;
+
+    // 推送计数：任务数、推送的粉丝数、晋升为大V的作者数、失败次数
+    private final CacheStats stats = new CacheStats();
+
+    // 推送延迟（毫秒）：笔记发布到推送完成的时间，最近一次与最大值
+    private final AtomicLong lastLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        createGroup();
+        fanoutExecutor = Executors.newFixedThreadPool(consumers, r -> {
+            Thread thread = new Thread(r, "feed-fanout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        String node = ManagementFactory.getRuntimeMXBean().getName();
+        for (int i = 0; i < consumers; i++) {
+            String consumer = node + "-" + i;
+            fanoutExecutor.submit(() -> consume(consumer));
+        }
+        reclaimer = node + "-reclaim";
+        reclaimExecutor.scheduleWithFixedDelay(this::reclaimPending, FEED_FANOUT_RECLAIM_IDLE, FEED_FANOUT_RECLAIM_IDLE, TimeUnit.SECONDS);
+    }
+
+    /**
+     * XGROUP CREATE stream.feed.fanout g1 0 MKSTREAM：无条件创建消费者组（Stream不存在时一并创建）
+     * 不先判断key是否存在：多个节点同时启动时先判断再创建会有竞争，而且Stream已存在但缺少消费者组时永远不会补建
+     * 消费者组已经存在时Redis返回BUSYGROUP，忽略即可
+     */
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(FEED_FANOUT_STREAM.getBytes(StandardCharsets.UTF_8), GROUP_NAME, ReadOffset.from("0"), true));
+        } catch (RuntimeException e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                    return;
+                }
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        if (fanoutExecutor != null) {
+            fanoutExecutor.shutdownNow();
+        }
+        reclaimExecutor.shutdownNow();
+    }
+
+    /**
+     * 提交推送任务 XADD stream.feed.fanout * authorId .. blogId .. time ..
+     */
+    public void submit(Long authorId, Long blogId, long time) {
+        Map<String, String> values = new HashMap<>(4);
+        values.put("authorId", authorId.toString());
+        values.put("blogId", blogId.toString());
+        values.put("time", String.valueOf(time));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(FEED_FANOUT_STREAM).ofMap(values));
+        stats.incr("jobs.submitted");
+    }
+
+    private void consume(String consumer) {
+        while (running) {
+            try {
+                // 1.获取推送任务 xreadgroup group g1 consumer count 1 block 2000 streams stream.feed.fanout >
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(GROUP_NAME, consumer),
+                        StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                        StreamOffset.create(FEED_FANOUT_STREAM, ReadOffset.lastConsumed())
+                );
+                if (list == null || list.isEmpty()) {
+                    continue;
+                }
+                // 2.处理任务，失败的任务留在pending-list中，由reclaimer接管后从进度表中的游标继续
+                for (MapRecord<String, Object, Object> record : list) {
+                    process(record, consumer);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                stats.incr("jobs.failed");
+                log.error("推送笔记异常", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理一个推送任务：从进度表中的游标开始，逐页推送，每页记录一次进度
+     */
+    private void process(MapRecord<String, Object, Object> record, String consumer) {
+        Map<Object, Object> value = record.getValue();
+        Long authorId = Long.valueOf(value.get("authorId").toString());
+        String blogId = value.get("blogId").toString();
+        long time = Long.parseLong(value.get("time").toString());
+        // 1.读取进度 "游标,已推送数量"
+        long cursor = 0;
+        long pushed = 0;
+        Object progress = stringRedisTemplate.opsForHash().get(FEED_FANOUT_PROGRESS_KEY, record.getId().getValue());
+        if (progress != null) {
+            List<String> parts = StrUtil.split(progress.toString(), ',');
+            cursor = Long.parseLong(parts.get(0));
+            pushed = Long.parseLong(parts.get(1));
+        }
+        while (running) {
+            // 2.粉丝数达到阈值：记为大V，笔记写入发件箱，剩余粉丝读取时拉取
+            if (pushed >= pushThreshold) {
+                stringRedisTemplate.opsForSet().add(FEED_CELEBRITY_KEY, authorId.toString());
+                stringRedisTemplate.opsForZSet().add(FEED_OUTBOX_KEY + authorId, blogId, time);
+                stats.incr("authors.promoted");
+                break;
+            }
+            // 3.按主键游标查询下一页粉丝 select id, user_id from tb_follow where follow_user_id = ? and id > ? order by id limit n
+            int limit = (int) Math.min(batchSize, pushThreshold - pushed);
+            List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", "user_id").eq("follow_user_id", authorId).gt("id", cursor)
+                    .orderByAsc("id").last("limit " + limit));
+            if (follows.isEmpty()) {
+                break;
+            }
+            // 4.批量推送这一页（管道ZADD，并按容量裁剪收件箱；收件箱已被回收的粉丝跳过）
+            int delivered = feedInbox.push(follows.stream().map(Follow::getUserId).collect(Collectors.toList()), blogId, time);
+            cursor = follows.get(follows.size() - 1).getId();
+            pushed += follows.size();
+            stats.add("followers.pushed", delivered);
+            stats.add("followers.skipped", follows.size() - delivered);
+            // 5.记录进度并续期任务
+            stringRedisTemplate.opsForHash().put(FEED_FANOUT_PROGRESS_KEY, record.getId().getValue(), cursor + "," + pushed);
+            touch(record.getId(), consumer);
+            if (follows.size() < limit) {
+                break;
+            }
+        }
+        if (!running) {
+            return;
+        }
+        // 6.完成：ACK并删除任务与进度
+        stringRedisTemplate.opsForStream().acknowledge(FEED_FANOUT_STREAM, GROUP_NAME, record.getId());
+        stringRedisTemplate.opsForStream().delete(FEED_FANOUT_STREAM, record.getId());
+        stringRedisTemplate.opsForHash().delete(FEED_FANOUT_PROGRESS_KEY, record.getId().getValue());
+        long lag = System.currentTimeMillis() - time;
+        lastLag.set(lag);
+        maxLag.accumulateAndGet(lag, Math::max);
+        stats.incr("jobs.completed");
+    }
+
+    /**
+     * XCLAIM stream.feed.fanout g1 consumer 0 id JUSTID：重置任务的空闲时间，避免推送大量粉丝时被其他节点接管
+     */
+    private void touch(RecordId id, String consumer) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.streamCommands().xClaimJustId(FEED_FANOUT_STREAM.getBytes(StandardCharsets.UTF_8), GROUP_NAME, consumer,
+                        RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(id)));
+    }
+
+    /**
+     * 接管空闲时间超过FEED_FANOUT_RECLAIM_IDLE的任务（处理它的线程或节点已经退出），从进度表中的游标继续推送
+     */
+    private void reclaimPending() {
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(FEED_FANOUT_STREAM, GROUP_NAME, Range.unbounded(), FEED_FANOUT_RECLAIM_COUNT);
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().getSeconds() < FEED_FANOUT_RECLAIM_IDLE) {
+                    continue;
+                }
+                List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                        connection.streamCommands().xClaim(FEED_FANOUT_STREAM.getBytes(StandardCharsets.UTF_8), GROUP_NAME,
+                                reclaimer, Duration.ofSeconds(FEED_FANOUT_RECLAIM_IDLE), message.getId()));
+                if (claimed == null || claimed.isEmpty()) {
+                    // 已经被其他节点接管
+                    continue;
+                }
+                Map<Object, Object> values = new HashMap<>();
+                claimed.get(0).getValue().forEach((k, v) ->
+                        values.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+                log.warn("接管推送任务：{}，第{}次投递", message.getId(), message.getTotalDeliveryCount() + 1);
+                process(StreamRecords.newRecord().in(FEED_FANOUT_STREAM).withId(message.getId()).ofMap(values), reclaimer);
+            }
+        } catch (Exception e) {
+            stats.incr("jobs.failed");
+            log.error("接管推送任务异常", e);
+        }
+    }
+
+    /**
+     * 推送指标：积压的任务数、最早的任务已经等待的时间、推送延迟以及各计数器
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Long backlog = stringRedisTemplate.opsForStream().size(FEED_FANOUT_STREAM);
+        result.put("backlog", backlog == null ? 0 : backlog);
+        // 任务完成后会从Stream中删除，最早的一条就是等待最久的任务，消息id的前半部分是写入时间（毫秒）
+        List<MapRecord<String, Object, Object>> oldest = stringRedisTemplate.opsForStream()
+                .range(FEED_FANOUT_STREAM, Range.unbounded(), RedisZSetCommands.Limit.limit().count(1));
+        long oldestAge = 0;
+        if (oldest != null && !oldest.isEmpty()) {
+            oldestAge = System.currentTimeMillis() - oldest.get(0).getId().getTimestamp();
+        }
+        result.put("oldestAgeMillis", oldestAge);
+        result.put("lastLagMillis", lastLag.get());
+        result.put("maxLagMillis", maxLag.get());
+        result.putAll(stats.snapshot());
+        return result;
+    }
+}
@@ -0,0 +1,233 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * Feed流收件箱（feed:用户id）的容量控制与回收
+ * 1.推送时在同一个管道中 ZREMRANGEBYRANK key 0 -(cap+1)，每个收件箱最多保留最近的cap条笔记
+ * 2.用户最近活跃时间保存在feed:active（读取Feed流、登录时更新；第一次收到推送时以推送时间作为初始值）
+ * 3.后台定时回收：超过inactiveDays天不活跃的用户，删除收件箱并记入feed:compacted，之后的推送跳过这些用户
+ * 4.用户再次登录或读取Feed流时，从关注的作者最近的笔记重建收件箱（大V的笔记在发件箱中，不写入收件箱）
+ */
+@Slf4j
+@Component
+public class FeedInbox {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    /**
+     * 每个收件箱最多保留的笔记数
+     */
+    @Value("${hmdp.feed.inbox-cap:1000}")
+    private int inboxCap;
+
+    /**
+     * 超过这么多天不活跃的用户回收收件箱，<=0表示不回收
+     */
+    @Value("${hmdp.feed.inactive-days:30}")
+    private int inactiveDays;
+
+    private final ScheduledExecutorService compactExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "feed-compact");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 登录时异步重建收件箱，不增加登录耗时
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "feed-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        if (inactiveDays > 0) {
+            compactExecutor.scheduleWithFixedDelay(this::compact, FEED_COMPACT_INTERVAL, FEED_COMPACT_INTERVAL, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        compactExecutor.shutdownNow();
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 把笔记推送到一批粉丝的收件箱
+     * 1.一个管道查询哪些粉丝的收件箱已经被回收（这些粉丝之后登录时重建，现在不推送）
+     * 2.一个管道写入其余粉丝：ZADD笔记、按容量裁剪、记录初始活跃时间（ZADD NX，不覆盖真实的活跃时间）
+     *
+     * @return 实际推送的粉丝数
+     */
+    public int push(List<Long> userIds, String blogId, long time) {
+        List<Object> compacted = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] rawCompacted = FEED_COMPACTED_KEY.getBytes(StandardCharsets.UTF_8);
+            for (Long userId : userIds) {
+                connection.setCommands().sIsMember(rawCompacted, userId.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<Long> targets = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            if (!Boolean.TRUE.equals(compacted.get(i))) {
+                targets.add(userIds.get(i));
+            }
+        }
+        if (targets.isEmpty()) {
+            return 0;
+        }
+        byte[] rawMember = blogId.getBytes(StandardCharsets.UTF_8);
+        byte[] rawActive = FEED_ACTIVE_KEY.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long userId : targets) {
+                byte[] key = (FEED_KEY + userId).getBytes(StandardCharsets.UTF_8);
+                connection.zSetCommands().zAdd(key, time, rawMember);
+                connection.zSetCommands().zRemRange(key, 0, -(inboxCap + 1));
+                connection.zSetCommands().zAdd(rawActive, time, userId.toString().getBytes(StandardCharsets.UTF_8),
+                        RedisZSetCommands.ZAddArgs.ifNotExists());
+            }
+            return null;
+        });
+        return targets.size();
+    }
+
+    /**
+     * 读取Feed流前调用：更新活跃时间，收件箱已经被回收时先重建
+     */
+    public void touch(Long userId) {
+        stringRedisTemplate.opsForZSet().add(FEED_ACTIVE_KEY, userId.toString(), System.currentTimeMillis());
+        rebuildIfCompacted(userId);
+    }
+
+    /**
+     * 登录时调用：更新活跃时间，收件箱已经被回收时在后台重建
+     */
+    public void onLogin(Long userId) {
+        stringRedisTemplate.opsForZSet().add(FEED_ACTIVE_KEY, userId.toString(), System.currentTimeMillis());
+        try {
+            rebuildExecutor.submit(() -> {
+                try {
+                    rebuildIfCompacted(userId);
+                } catch (Exception e) {
+                    log.error("重建收件箱失败：{}", userId, e);
+                }
+            });
+        } catch (Exception e) {
+            log.error("提交重建收件箱任务失败：{}", userId, e);
+        }
+    }
+
+    /**
+     * SREM feed:compacted 用户id：移除成功说明收件箱被回收过，并且由当前线程负责重建（同一个用户只重建一次）
+     */
+    private void rebuildIfCompacted(Long userId) {
+        Long removed = stringRedisTemplate.opsForSet().remove(FEED_COMPACTED_KEY, userId.toString());
+        if (removed == null || removed == 0) {
+            return;
+        }
+        try {
+            rebuild(userId);
+        } catch (RuntimeException e) {
+            // 重建失败：重新记为已回收，下次再重建
+            stringRedisTemplate.opsForSet().add(FEED_COMPACTED_KEY, userId.toString());
+            throw e;
+        }
+    }
+
+    /**
+     * 重建收件箱：关注的作者（不包括大V）最近的inboxCap条笔记
+     * select follow_user_id from tb_follow where user_id = ? limit n
+     * select id, create_time from tb_blog where user_id in (...) order by create_time desc limit cap
+     */
+    private void rebuild(Long userId) {
+        List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                .select("follow_user_id").eq("user_id", userId).last("limit " + FEED_REBUILD_MAX_FOLLOWEES));
+        Set<String> celebrities = stringRedisTemplate.opsForSet().members(FEED_CELEBRITY_KEY);
+        List<Long> authors = follows.stream().map(Follow::getFollowUserId)
+                .filter(id -> celebrities == null || !celebrities.contains(id.toString()))
+                .distinct().collect(Collectors.toList());
+        String key = FEED_KEY + userId;
+        if (authors.isEmpty()) {
+            stringRedisTemplate.delete(key);
+            return;
+        }
+        List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                .select("id", "create_time").in("user_id", authors)
+                .orderByDesc("create_time").last("limit " + inboxCap));
+        ZoneId zone = ZoneId.systemDefault();
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.keyCommands().del(rawKey);
+            for (Blog blog : blogs) {
+                if (blog.getCreateTime() == null) {
+                    continue;
+                }
+                long time = blog.getCreateTime().atZone(zone).toInstant().toEpochMilli();
+                connection.zSetCommands().zAdd(rawKey, time, blog.getId().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        log.debug("重建收件箱：{}，笔记数：{}", userId, blogs.size());
+    }
+
+    /**
+     * 回收不活跃用户的收件箱：每次处理FEED_COMPACT_BATCH个，直到没有超过期限的用户
+     * 先记入feed:compacted再删除收件箱：删除之后的推送都会被跳过，不会重新生成收件箱
+     */
+    private void compact() {
+        try {
+            long deadline = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(inactiveDays);
+            long total = 0;
+            while (true) {
+                Set<String> users = stringRedisTemplate.opsForZSet()
+                        .rangeByScore(FEED_ACTIVE_KEY, 0, deadline, 0, FEED_COMPACT_BATCH);
+                if (users == null || users.isEmpty()) {
+                    break;
+                }
+                stringRedisTemplate.opsForSet().add(FEED_COMPACTED_KEY, users.toArray(new String[0]));
+                stringRedisTemplate.delete(users.stream().map(u -> FEED_KEY + u).collect(Collectors.toList()));
+                stringRedisTemplate.opsForZSet().remove(FEED_ACTIVE_KEY, users.toArray());
+                total += users.size();
+            }
+            if (total > 0) {
+                log.info("回收不活跃用户的收件箱：{}个", total);
+            }
+        } catch (Exception e) {
+            log.error("回收收件箱异常", e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Feed流多路归并：收件箱（推模式）与关注的大V的发件箱（拉模式）合并成一个按时间倒序的滚动分页
+ * 1.每一路都是 ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 offset+count 的结果，已经按 分数倒序、成员倒序 排列（与Redis相同）
+ * 2.用一个小顶堆（按同样的顺序）每次取出各路中最大的一条，合并后的顺序是确定的，offset在多路之间也能正确跳过上一页已经返回的数据
+ * 3.分页约定与单个收件箱相同：max为上一页最小的时间戳，offset为上一页中等于这个时间戳的条数
+ */
+public class FeedMerge {
+
+    /**
+     * 分数倒序，分数相同按成员倒序（字典序），与ZREVRANGEBYSCORE的顺序一致
+     */
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>>comparingDouble(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue).reversed();
+
+    public static class Page {
+        private final List<ZSetOperations.TypedTuple<String>> items;
+        private final long minTime;
+        private final int offset;
+
+        private Page(List<ZSetOperations.TypedTuple<String>> items, long minTime, int offset) {
+            this.items = items;
+            this.minTime = minTime;
+            this.offset = offset;
+        }
+
+        public List<ZSetOperations.TypedTuple<String>> getItems() {
+            return items;
+        }
+
+        public long getMinTime() {
+            return minTime;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * 一路数据的读取位置
+     */
+    private static class Cursor {
+        private final Iterator<ZSetOperations.TypedTuple<String>> iterator;
+        private ZSetOperations.TypedTuple<String> head;
+
+        private Cursor(Iterator<ZSetOperations.TypedTuple<String>> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        private boolean advance() {
+            head = iterator.hasNext() ? iterator.next() : null;
+            return head != null;
+        }
+    }
+
+    /**
+     * @param sources 各路数据，每一路已经按时间倒序
+     * @param max     上一页最小的时间戳（第一页为当前时间）
+     * @param offset  跳过的条数（上一页中时间戳等于max的条数）
+     * @param count   每页条数
+     */
+    public static Page merge(Collection<? extends Collection<ZSetOperations.TypedTuple<String>>> sources,
+                             long max, int offset, int count) {
+        // 1.每一路的第一条放入堆中
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(sources.size(), 1), (a, b) -> ORDER.compare(a.head, b.head));
+        for (Collection<ZSetOperations.TypedTuple<String>> source : sources) {
+            if (source != null && !source.isEmpty()) {
+                heap.add(new Cursor(source.iterator()));
+            }
+        }
+        // 2.依次取出最大的一条：先跳过offset条，再取count条；同一条笔记出现在多路中时只保留一次
+        List<ZSetOperations.TypedTuple<String>> items = new ArrayList<>(count);
+        ZSetOperations.TypedTuple<String> previous = null;
+        int skipped = 0;
+        while (!heap.isEmpty() && items.size() < count) {
+            Cursor cursor = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = cursor.head;
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            if (tuple.getScore() > max || (previous != null && ORDER.compare(previous, tuple) == 0)) {
+                continue;
+            }
+            previous = tuple;
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            items.add(tuple);
+        }
+        // 3.计算下一页的max与offset：本页最小的时间戳，以及本页中等于它的条数
+        long minTime = 0;
+        int os = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : items) {
+            long time = tuple.getScore().longValue();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        // 本页全部等于上一页的最小时间戳：下一页还要跳过上一页的那些
+        if (minTime == max) {
+            os += offset;
+        }
+        return new Page(items, minTime, os);
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key探测：滑动窗口 + Count-Min Sketch
+ * 把时间窗口分成若干片，每片一个Count-Min Sketch（depth行 x width列的计数器），内存固定，与key的数量无关
+ * 记录访问时在当前片中累加，估算时把窗口内各片的估算值相加；Count-Min Sketch只会多估不会少估
+ * 过期的片在下一次使用时清零，窗口就随时间向前滑动
+ */
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048;
+
+    private final int slices;
+    private final long sliceMillis;
+
+    /**
+     * 每片的计数器，按 行 * WIDTH + 列 展开成一维数组
+     */
+    private final AtomicIntegerArray[] counters;
+
+    /**
+     * 每片当前对应的时间片编号（当前时间 / 片长），与当前编号相差超过片数说明已经滑出窗口
+     */
+    private final AtomicLongArray sliceEpochs;
+
+    public HotKeyDetector(int slices, long sliceMillis) {
+        this.slices = slices;
+        this.sliceMillis = sliceMillis;
+        this.counters = new AtomicIntegerArray[slices];
+        this.sliceEpochs = new AtomicLongArray(slices);
+        for (int i = 0; i < slices; i++) {
+            counters[i] = new AtomicIntegerArray(DEPTH * WIDTH);
+            sliceEpochs.set(i, -slices);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @return 记录后该key在窗口内的估算访问次数
+     */
+    public int record(String key) {
+        long epoch = System.currentTimeMillis() / sliceMillis;
+        AtomicIntegerArray slice = currentSlice(epoch);
+        int h1 = spread(key.hashCode());
+        int h2 = spread(h1 ^ 0x5bd1e995) | 1;
+        for (int row = 0; row < DEPTH; row++) {
+            slice.incrementAndGet(row * WIDTH + ((h1 + row * h2) & (WIDTH - 1)));
+        }
+        return estimate(key, epoch);
+    }
+
+    /**
+     * 估算key在窗口内的访问次数
+     */
+    public int estimate(String key) {
+        return estimate(key, System.currentTimeMillis() / sliceMillis);
+    }
+
+    private int estimate(String key, long epoch) {
+        int h1 = spread(key.hashCode());
+        int h2 = spread(h1 ^ 0x5bd1e995) | 1;
+        int total = 0;
+        for (int i = 0; i < slices; i++) {
+            if (epoch - sliceEpochs.get(i) >= slices) {
+                // 已经滑出窗口（或从未使用）的片不参与统计
+                continue;
+            }
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[i].get(row * WIDTH + ((h1 + row * h2) & (WIDTH - 1))));
+            }
+            total += min;
+        }
+        return total;
+    }
+
+    /**
+     * 获取当前时间片，第一次进入新的时间片时清零（只有一个线程执行清零）
+     */
+    private AtomicIntegerArray currentSlice(long epoch) {
+        int index = (int) (epoch % slices);
+        if (sliceEpochs.get(index) != epoch) {
+            synchronized (this) {
+                if (sliceEpochs.get(index) != epoch) {
+                    AtomicIntegerArray slice = counters[index];
+                    for (int i = 0; i < slice.length(); i++) {
+                        slice.set(i, 0);
+                    }
+                    sliceEpochs.set(index, epoch);
+                }
+            }
+        }
+        return counters[index];
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
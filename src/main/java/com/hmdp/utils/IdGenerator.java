@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一ID生成器
+ * ID由两部分组成：时间戳(31位，秒) + 32位，不同的实现只是低32位的来源不同
+ * 1.RedisIdWorker（号段模式）：低32位是Redis中按天计数的序列号，每个节点一次领取一个号段
+ * 2.SnowflakeIdGenerator（雪花算法）：低32位是 标记位 + workerId + 本节点每秒的序列号，生成ID不访问Redis
+ */
+public interface IdGenerator {
+
+    /**
+     * @param keyPrefix 业务前缀
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,184 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.OrderOutboxMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_OUTBOX_POLL_INTERVAL;
+import static com.hmdp.utils.RedisConstants.SECKILL_RETRY_MAX_BACKOFF;
+
+/**
+ * 数据库发件箱订单队列（表tb_order_outbox）
+ * 1.下单时向发件箱写入一行（主键插入，不竞争库存行锁）
+ * 2.消费线程在一个事务中：SELECT ... FOR UPDATE SKIP LOCKED领取一批到期的订单 -> 创建订单、扣库存 -> 删除这批发件箱记录
+ *   创建订单与删除记录在同一个事务中提交，不会重复处理，也不会丢失；多个线程、多个节点领取的行互不重叠
+ * 3.整批失败时只逐条重试这一批记录（每条一个事务，重新加锁），仍然失败的记录投递次数加一、按退避时间推迟，达到最大投递次数转为死信
+ * 本节点写入订单后唤醒一个消费线程，其他节点写入的订单最多等待一个轮询间隔
+ */
+@Slf4j
+public class JdbcOutboxOrderQueue implements OrderQueue {
+
+    private final OrderOutboxMapper outboxMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final int consumers;
+    private final int batchSize;
+    private final long maxDeliveries;
+    private final long retryBackoff;
+
+    /**
+     * 本节点写入订单时释放一个许可，唤醒等待中的消费线程
+     */
+    private final Semaphore wakeup = new Semaphore(0);
+
+    private ExecutorService consumerExecutor;
+
+    private volatile boolean running;
+
+    public JdbcOutboxOrderQueue(OrderOutboxMapper outboxMapper, TransactionTemplate transactionTemplate, int consumers,
+                                int batchSize, long maxDeliveries, long retryBackoff) {
+        this.outboxMapper = outboxMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.consumers = consumers;
+        this.batchSize = batchSize;
+        this.maxDeliveries = maxDeliveries;
+        this.retryBackoff = retryBackoff;
+    }
+
+    @Override
+    public String scriptStream() {
+        return null;
+    }
+
+    @Override
+    public void publish(VoucherOrder order) {
+        outboxMapper.insert(order);
+        if (wakeup.availablePermits() < consumers) {
+            wakeup.release();
+        }
+    }
+
+    @Override
+    public void start(Handler handler) {
+        running = true;
+        consumerExecutor = Executors.newFixedThreadPool(consumers, r -> {
+            Thread thread = new Thread(r, "seckill-order");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < consumers; i++) {
+            consumerExecutor.submit(() -> consume(handler));
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (consumerExecutor != null) {
+            consumerExecutor.shutdownNow();
+        }
+    }
+
+    private void consume(Handler handler) {
+        // 本次领取到的记录id，整批回滚后只重试这些记录
+        List<Long> claimed = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                // 1.在一个事务中领取一批订单、创建订单并删除发件箱记录
+                List<VoucherOrder> orders;
+                claimed.clear();
+                try {
+                    orders = transactionTemplate.execute(status -> {
+                        List<VoucherOrder> due = outboxMapper.selectDueForUpdate(batchSize);
+                        if (!due.isEmpty()) {
+                            List<Long> ids = due.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+                            claimed.addAll(ids);
+                            handler.handleBatch(due);
+                            outboxMapper.deleteByIds(ids);
+                        }
+                        return due;
+                    });
+                } catch (Exception e) {
+                    // 2.整批回滚（行锁已经释放）：只逐条重试这一批记录
+                    log.warn("批量创建订单失败，改为逐条处理，数量：{}", claimed.size(), e);
+                    orders = Collections.emptyList();
+                    handleOneByOne(handler, claimed);
+                }
+                // 3.没有到期的订单：等待本节点的新订单或者下一次轮询
+                if (orders == null || orders.isEmpty()) {
+                    if (wakeup.tryAcquire(SECKILL_OUTBOX_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        wakeup.drainPermits();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("处理订单异常", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 逐条处理整批回滚的记录，每条记录一个事务：
+     * 1.SELECT ... WHERE id=? FOR UPDATE SKIP LOCKED重新加锁，整批回滚后已经被其他消费者领取（或已删除）的记录直接跳过
+     * 2.创建订单并删除记录
+     * 3.失败时事务回滚，再在新事务中重新加锁后把投递次数加一并推迟；只有真正失败的订单才会累计投递次数
+     */
+    private void handleOneByOne(Handler handler, List<Long> ids) {
+        for (Long id : ids) {
+            try {
+                transactionTemplate.execute(status -> {
+                    VoucherOrder order = outboxMapper.selectByIdForUpdate(id);
+                    if (order != null) {
+                        handler.handle(order);
+                        outboxMapper.deleteByIds(Collections.singletonList(id));
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                log.error("处理订单失败，推迟重试（达到{}次转为死信）：{}", maxDeliveries, id, e);
+                markFailed(id);
+            }
+        }
+    }
+
+    private void markFailed(Long id) {
+        try {
+            transactionTemplate.execute(status -> {
+                if (outboxMapper.selectByIdForUpdate(id) != null) {
+                    outboxMapper.markFailed(id, maxDeliveries, retryBackoff, SECKILL_RETRY_MAX_BACKOFF);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 记录失败次数也失败（例如数据库不可用）：记录仍是待处理状态，之后会被重新领取
+            log.error("记录订单处理失败异常：{}", id, e);
+        }
+    }
+
+    @Override
+    public int replayDeadLetters(int count) {
+        int n = outboxMapper.replayDead(count);
+        if (n > 0) {
+            wakeup.release(Math.min(n, consumers));
+        }
+        return n;
+    }
+}
@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基于Hutool JSON的编解码器，即原来CacheClient写入Redis的格式
+ * 二进制编解码器也用它来读取升级之前写入的旧数据
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> RedisData decode(byte[] bytes, Class<T> type) {
+        JSONObject json;
+        try {
+            json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            // 不是JSON对象（例如损坏的数据），按未命中处理
+            return null;
+        }
+        // 带expireTime字段的是逻辑过期数据（RedisData），先反序列化外层，再把data反序列化为目标对象
+        if (json.containsKey("expireTime")) {
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            Object data = redisData.getData();
+            redisData.setData(data instanceof JSONObject ? JSONUtil.toBean((JSONObject) data, type) : null);
+            return redisData;
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(JSONUtil.toBean(json, type));
+        return redisData;
+    }
+}
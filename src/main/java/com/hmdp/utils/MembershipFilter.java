@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import org.redisson.api.RBloomFilter;
+
+/**
+ * 存在性过滤器：CacheClient在查询缓存之前用它拦截一定不存在的id（解决大范围不存在id的缓存穿透）
+ * 实现可以是Redis中的布隆过滤器，也可以是本地内存中的镜像，或者支持删除的布谷鸟过滤器
+ *
+ * @param <T> 元素类型
+ */
+public interface MembershipFilter<T> {
+
+    /**
+     * 判断元素是否可能存在
+     *
+     * @return false表示一定不存在；true表示可能存在（存在误判）
+     */
+    boolean contains(T value);
+
+    /**
+     * 添加元素
+     */
+    void add(T value);
+
+    /**
+     * 删除元素（只能删除之前添加过的元素），布隆过滤器不支持删除
+     *
+     * @return 是否删除成功
+     */
+    default boolean remove(T value) {
+        throw new UnsupportedOperationException("布隆过滤器不支持删除");
+    }
+
+    /**
+     * 把Redisson的布隆过滤器包装成MembershipFilter，每次判断都要访问一次Redis
+     */
+    static <T> MembershipFilter<T> of(RBloomFilter<T> bloomFilter) {
+        return new MembershipFilter<T>() {
+            @Override
+            public boolean contains(T value) {
+                return bloomFilter.contains(value);
+            }
+
+            @Override
+            public void add(T value) {
+                bloomFilter.add(value);
+            }
+        };
+    }
+}
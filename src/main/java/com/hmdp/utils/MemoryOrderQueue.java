@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_PUBLISH_TIMEOUT;
+import static com.hmdp.utils.RedisConstants.SECKILL_RETRY_MAX_BACKOFF;
+
+/**
+ * 进程内订单队列：每个消费线程一个环形缓冲区（多生产者、单消费者）
+ * 1.订单按 优惠券id % 线程数 分配到环形缓冲区，同一张优惠券的订单由同一个线程扣库存，线程之间不竞争同一行库存的行锁
+ * 2.消费线程一次取走缓冲区中所有积压的订单（最多batchSize个）在一个事务中创建，失败时逐条处理
+ * 3.逐条处理仍然失败的订单按退避时间重试，达到最大投递次数后放入内存中的死信队列，可以通过replayDeadLetters重放
+ * 订单只保存在本节点内存中：进程退出前会尽量处理完缓冲区中的订单，但进程崩溃时还没处理的订单会丢失
+ */
+@Slf4j
+public class MemoryOrderQueue implements OrderQueue {
+
+    /**
+     * 缓冲区为空时先让出CPU几次再短暂休眠，兼顾延迟与空闲时的CPU占用
+     */
+    private static final int SPIN_TRIES = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final RingBuffer<VoucherOrder>[] rings;
+    private final int batchSize;
+    private final long maxDeliveries;
+    private final long retryBackoff;
+
+    private final ConcurrentLinkedDeque<VoucherOrder> deadLetters = new ConcurrentLinkedDeque<>();
+
+    private ExecutorService consumerExecutor;
+
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-order-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running;
+
+    @SuppressWarnings("unchecked")
+    public MemoryOrderQueue(int consumers, int ringSize, int batchSize, long maxDeliveries, long retryBackoff) {
+        this.rings = new RingBuffer[consumers];
+        for (int i = 0; i < consumers; i++) {
+            rings[i] = new RingBuffer<>(ringSize);
+        }
+        this.batchSize = batchSize;
+        this.maxDeliveries = maxDeliveries;
+        this.retryBackoff = retryBackoff;
+    }
+
+    @Override
+    public String scriptStream() {
+        return null;
+    }
+
+    /**
+     * 放入订单所属的环形缓冲区；缓冲区已满时最多等待SECKILL_PUBLISH_TIMEOUT毫秒，不会让请求线程一直阻塞
+     * 队列已经停止或等待超时抛出异常，由调用方回补库存
+     */
+    @Override
+    public void publish(VoucherOrder order) {
+        if (!running) {
+            throw new IllegalStateException("订单队列已停止");
+        }
+        RingBuffer<VoucherOrder> ring = rings[(int) Math.floorMod(order.getVoucherId(), (long) rings.length)];
+        if (!ring.offer(order, SECKILL_PUBLISH_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("订单队列已满");
+        }
+    }
+
+    @Override
+    public void start(Handler handler) {
+        running = true;
+        consumerExecutor = Executors.newFixedThreadPool(rings.length, r -> {
+            Thread thread = new Thread(r, "seckill-order");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (RingBuffer<VoucherOrder> ring : rings) {
+            consumerExecutor.submit(() -> consume(ring, handler));
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        retryExecutor.shutdownNow();
+        if (consumerExecutor == null) {
+            return;
+        }
+        // 不中断消费线程，等它们处理完缓冲区中剩余的订单
+        consumerExecutor.shutdown();
+        try {
+            if (!consumerExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.error("停止时仍有订单没有处理完");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume(RingBuffer<VoucherOrder> ring, Handler handler) {
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        int idle = 0;
+        while (true) {
+            if (ring.drainTo(batch, batchSize) == 0) {
+                if (!running) {
+                    return;
+                }
+                if (++idle < SPIN_TRIES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+            idle = 0;
+            try {
+                handler.handleBatch(batch);
+            } catch (Exception e) {
+                log.warn("批量创建订单失败，改为逐条处理，数量：{}", batch.size(), e);
+                for (VoucherOrder order : batch) {
+                    handle(handler, order, 1);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 处理一个订单，失败时按退避时间安排重试
+     *
+     * @param deliveries 这是第几次投递
+     */
+    private void handle(Handler handler, VoucherOrder order, long deliveries) {
+        try {
+            handler.handle(order);
+        } catch (Exception e) {
+            if (deliveries >= maxDeliveries) {
+                deadLetters.add(order);
+                log.error("订单投递{}次仍然失败，转入死信队列：{}", deliveries, order, e);
+                return;
+            }
+            long backoff = Math.min(retryBackoff << Math.min(deliveries - 1, 20), SECKILL_RETRY_MAX_BACKOFF);
+            log.error("处理订单失败，第{}次，{}毫秒后重试：{}", deliveries, backoff, order.getId(), e);
+            if (running) {
+                retryExecutor.schedule(() -> handle(handler, order, deliveries + 1), backoff, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public int replayDeadLetters(int count) {
+        int n = 0;
+        VoucherOrder order;
+        while (n < count && (order = deadLetters.poll()) != null) {
+            try {
+                publish(order);
+            } catch (IllegalStateException e) {
+                // 队列已满或已停止：放回死信队列，下次再重放
+                deadLetters.addFirst(order);
+                break;
+            }
+            n++;
+        }
+        return n;
+    }
+}
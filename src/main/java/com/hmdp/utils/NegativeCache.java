@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 不存在数据的缓存（负缓存），在固定有效期的空值之上：
+ * 1.自适应有效期：同一个key反复确认不存在时，空值的有效期按 基础有效期 * 2^(次数-1) 增长，不超过最大有效期
+ *   经常被查询的不存在的key不会每隔2分钟就打到一次数据库
+ * 2.区间拒绝：按id每32个分为一块，一块内短时间内有多个id确认不存在，说明有客户端在按区间扫描不存在的id，
+ *   这一块升级为区间拒绝表（Redis Hash：块号 -> 32位位图），之后块内确认不存在的id只在位图中置一位，不再逐个写入空值key
+ *   查询时Redis未命中先判断位图，命中直接返回不存在；位图在本地缓存一小段时间，扫描的请求不会每次都访问Redis
+ * 只有非负整数id参与区间拒绝；新增数据后需要调用clear清除对应的位
+ */
+@Slf4j
+public class NegativeCache {
+
+    private static final DefaultRedisScript<Long> DENY_SCRIPT;
+    static {
+        DENY_SCRIPT = new DefaultRedisScript<>();
+        DENY_SCRIPT.setLocation(new ClassPathResource("deny.lua"));
+        DENY_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheStats stats;
+    private final long baseTtl;
+    private final long maxTtl;
+    private final int rangeThreshold;
+
+    /**
+     * key -> 连续确认不存在的次数
+     */
+    private final Cache<String, AtomicInteger> missCounts = Caffeine.newBuilder()
+            .maximumSize(CACHE_NEGATIVE_LOCAL_MAX_SIZE)
+            .expireAfterAccess(CACHE_MISS_COUNT_TTL, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 块 -> 窗口内本节点确认不存在的id位图，用来识别区间扫描
+     */
+    private final Cache<String, AtomicInteger> missBlocks = Caffeine.newBuilder()
+            .maximumSize(CACHE_NEGATIVE_LOCAL_MAX_SIZE)
+            .expireAfterWrite(CACHE_DENY_WINDOW, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * 块 -> 区间拒绝表中的位图（本地副本，0表示这一块没有被拒绝的id）
+     */
+    private final Cache<String, Integer> denyBlocks = Caffeine.newBuilder()
+            .maximumSize(CACHE_NEGATIVE_LOCAL_MAX_SIZE)
+            .expireAfterWrite(CACHE_DENY_LOCAL_TTL, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * @param baseTtl        空值的基础有效期（秒）
+     * @param maxTtl         空值的最大有效期（秒），也是区间拒绝表的有效期
+     * @param rangeThreshold 一块（32个id）内确认不存在的id数量达到该值时升级为区间拒绝
+     */
+    public NegativeCache(StringRedisTemplate stringRedisTemplate, CacheStats stats, long baseTtl, long maxTtl, int rangeThreshold) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.stats = stats;
+        this.baseTtl = baseTtl;
+        this.maxTtl = maxTtl;
+        this.rangeThreshold = rangeThreshold;
+    }
+
+    /**
+     * 判断id是否在区间拒绝表中（在Redis未命中、查询数据库之前调用）
+     */
+    public boolean isDenied(String key, Object id) {
+        long rangeId = rangeId(id);
+        if (rangeId < 0) {
+            return false;
+        }
+        String prefix = prefixOf(key, id);
+        long block = rangeId / CACHE_DENY_BLOCK;
+        int mask = denyBlocks.get(blockKey(prefix, block), k -> loadBlock(prefix, block));
+        if ((mask & bitOf(rangeId)) == 0) {
+            return false;
+        }
+        stats.incr("negative.range.hit");
+        return true;
+    }
+
+    /**
+     * 数据库确认数据不存在后调用
+     *
+     * @return 空值的有效期（秒）；0表示已经记录在区间拒绝表中，不需要再写入空值
+     */
+    public long onMiss(String key, Object id) {
+        long rangeId = rangeId(id);
+        if (rangeId >= 0) {
+            String prefix = prefixOf(key, id);
+            long block = rangeId / CACHE_DENY_BLOCK;
+            String blockKey = blockKey(prefix, block);
+            int bit = bitOf(rangeId);
+            // 1.这一块已经升级为区间拒绝：只置一位
+            Integer denied = denyBlocks.getIfPresent(blockKey);
+            if (denied != null && denied != 0) {
+                deny(prefix, block, bit);
+                stats.incr("negative.range");
+                return 0;
+            }
+            // 2.记录块内确认不存在的id，数量达到阈值判定为区间扫描，块内已经记录的id一起写入区间拒绝表
+            int mask = missBlocks.get(blockKey, k -> new AtomicInteger()).accumulateAndGet(bit, (a, b) -> a | b);
+            if (Integer.bitCount(mask) >= rangeThreshold) {
+                deny(prefix, block, mask);
+                stats.incr("negative.escalate");
+                log.info("检测到区间扫描不存在的数据，升级为区间拒绝：{}[{}, {})", prefix,
+                        block * CACHE_DENY_BLOCK, (block + 1) * CACHE_DENY_BLOCK);
+                return 0;
+            }
+        }
+        // 3.自适应有效期：确认不存在的次数越多，有效期越长
+        int misses = missCounts.get(key, k -> new AtomicInteger()).incrementAndGet();
+        stats.incr("negative.null");
+        return Math.min(baseTtl << Math.min(misses - 1, 20), maxTtl);
+    }
+
+    /**
+     * 数据已经新增：清除次数记录和区间拒绝表中对应的位
+     */
+    public void clear(String key, Object id) {
+        missCounts.invalidate(key);
+        long rangeId = rangeId(id);
+        if (rangeId < 0) {
+            return;
+        }
+        String prefix = prefixOf(key, id);
+        long block = rangeId / CACHE_DENY_BLOCK;
+        stringRedisTemplate.execute(DENY_SCRIPT, Collections.singletonList(CACHE_DENY_KEY_PREFIX + prefix),
+                "0", String.valueOf(maxTtl), String.valueOf(block), String.valueOf(rangeId % CACHE_DENY_BLOCK));
+        invalidateLocal(key);
+    }
+
+    /**
+     * 清除key所在块的本地记录（收到失效消息时调用，key的结尾是数字id）
+     */
+    public void invalidateLocal(String key) {
+        missCounts.invalidate(key);
+        int i = key.length();
+        while (i > 0 && Character.isDigit(key.charAt(i - 1))) {
+            i--;
+        }
+        if (i == key.length() || key.length() - i > 18) {
+            return;
+        }
+        String blockKey = blockKey(key.substring(0, i), Long.parseLong(key.substring(i)) / CACHE_DENY_BLOCK);
+        denyBlocks.invalidate(blockKey);
+        missBlocks.invalidate(blockKey);
+    }
+
+    /**
+     * 把块内mask中的位写入区间拒绝表
+     */
+    private void deny(String prefix, long block, int mask) {
+        List<String> args = new ArrayList<>();
+        args.add("1");
+        args.add(String.valueOf(maxTtl));
+        for (int i = 0; i < CACHE_DENY_BLOCK; i++) {
+            if ((mask & (1 << i)) != 0) {
+                args.add(String.valueOf(block));
+                args.add(String.valueOf(i));
+            }
+        }
+        stringRedisTemplate.execute(DENY_SCRIPT, Collections.singletonList(CACHE_DENY_KEY_PREFIX + prefix), args.toArray());
+        denyBlocks.asMap().merge(blockKey(prefix, block), mask, (a, b) -> a | b);
+    }
+
+    private int loadBlock(String prefix, long block) {
+        Object mask = stringRedisTemplate.opsForHash().get(CACHE_DENY_KEY_PREFIX + prefix, String.valueOf(block));
+        return mask == null ? 0 : Integer.parseInt(mask.toString());
+    }
+
+    private static String blockKey(String prefix, long block) {
+        return prefix + "#" + block;
+    }
+
+    private static int bitOf(long rangeId) {
+        return 1 << (int) (rangeId % CACHE_DENY_BLOCK);
+    }
+
+    private static String prefixOf(String key, Object id) {
+        return key.substring(0, key.length() - id.toString().length());
+    }
+
+    /**
+     * 参与区间拒绝的id：非负整数，否则返回-1
+     */
+    private static long rangeId(Object id) {
+        if (id instanceof Long || id instanceof Integer) {
+            return Math.max(((Number) id).longValue(), -1);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 堆外位图，按位序号分片存放在多个DirectByteBuffer中
+ * 1.堆外内存不参与GC扫描和复制，大位图不会拉长GC停顿；单个ByteBuffer最大2GB，分片后位数不受限制
+ * 2.位的排列与Redis的SETBIT/GETBIT一致（第i位在第i/8个字节中，高位在前），可以直接把Redis中的位图字节拷贝进来
+ * 3.写操作按分片加锁（同一字节的读-改-写不能并发），读操作不加锁
+ */
+public class OffHeapBitSet {
+
+    /**
+     * 每个分片 2^SHARD_BYTE_BITS 个字节（64MB，即5亿多位）
+     */
+    private static final int SHARD_BYTE_BITS = 26;
+    private static final long SHARD_BYTES = 1L << SHARD_BYTE_BITS;
+
+    private final long size;
+    private final ByteBuffer[] shards;
+
+    public OffHeapBitSet(long size) {
+        this.size = size;
+        long bytes = (size + 7) >>> 3;
+        int shardCount = (int) ((bytes + SHARD_BYTES - 1) >>> SHARD_BYTE_BITS);
+        this.shards = new ByteBuffer[Math.max(shardCount, 1)];
+        for (int i = 0; i < shards.length; i++) {
+            long remaining = bytes - ((long) i << SHARD_BYTE_BITS);
+            shards[i] = ByteBuffer.allocateDirect((int) Math.max(Math.min(remaining, SHARD_BYTES), 1));
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean get(long index) {
+        long byteIndex = index >>> 3;
+        ByteBuffer shard = shards[(int) (byteIndex >>> SHARD_BYTE_BITS)];
+        int b = shard.get((int) (byteIndex & (SHARD_BYTES - 1)));
+        return (b & (0x80 >>> (index & 7))) != 0;
+    }
+
+    public void set(long index) {
+        long byteIndex = index >>> 3;
+        ByteBuffer shard = shards[(int) (byteIndex >>> SHARD_BYTE_BITS)];
+        int offset = (int) (byteIndex & (SHARD_BYTES - 1));
+        synchronized (shard) {
+            shard.put(offset, (byte) (shard.get(offset) | (0x80 >>> (index & 7))));
+        }
+    }
+
+    /**
+     * 从Redis位图的字节中整体加载（Redis位图只会写到最后一个为1的位，长度可能小于size/8）
+     */
+    public void load(byte[] bytes) {
+        long total = Math.min(bytes.length, (size + 7) >>> 3);
+        for (int i = 0; i < shards.length; i++) {
+            long from = (long) i << SHARD_BYTE_BITS;
+            if (from >= total) {
+                break;
+            }
+            int length = (int) Math.min(total - from, SHARD_BYTES);
+            ByteBuffer shard = shards[i];
+            synchronized (shard) {
+                ByteBuffer view = shard.duplicate();
+                view.clear();
+                view.put(bytes, (int) from, length);
+            }
+        }
+    }
+}
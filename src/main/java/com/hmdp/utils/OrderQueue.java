@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+
+import java.util.List;
+
+/**
+ * 秒杀订单队列：Lua脚本判断资格、扣库存成功后，订单经过队列交给后台线程异步写入数据库
+ * 通过 hmdp.seckill.queue 选择实现（见SeckillConfig）：
+ * 1.redis：Redis Stream（stream.orders），脚本扣库存的同时原子写入消息；消费者组 + pending-list重新投递 + 死信队列，多节点共享
+ * 2.memory：进程内的环形缓冲区（LMAX Disruptor的思路），没有网络开销、延迟最低；
+ *   但订单只保存在本节点内存中，进程退出时还没处理的订单会丢失，适合单节点部署和测试
+ * 3.outbox：数据库发件箱表tb_order_outbox，下单时只是一次单行INSERT（不竞争库存行锁），
+ *   消费者在同一个事务中创建订单并删除发件箱记录，订单的持久性不依赖Redis
+ */
+public interface OrderQueue {
+
+    /**
+     * 订单处理逻辑（由VoucherOrderServiceImpl提供）
+     */
+    interface Handler {
+
+        /**
+         * 在一个事务中创建一批订单，失败时整批回滚（队列随后逐条调用handle）
+         */
+        void handleBatch(List<VoucherOrder> orders);
+
+        /**
+         * 创建一个订单
+         */
+        void handle(VoucherOrder order);
+    }
+
+    /**
+     * 秒杀脚本扣库存时直接写入的Stream名称
+     *
+     * @return null表示脚本不写入消息，扣库存成功后需要调用publish
+     */
+    String scriptStream();
+
+    /**
+     * 把订单放入队列
+     */
+    void publish(VoucherOrder order);
+
+    /**
+     * 启动消费线程
+     */
+    void start(Handler handler);
+
+    /**
+     * 停止消费线程
+     */
+    void stop();
+
+    /**
+     * 把最早的count条死信重新放回队列
+     *
+     * @return 重放的数量
+     */
+    int replayDeadLetters(int count);
+}
@@ -8,6 +8,12 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
+    // 本地一级缓存（L1）：最大条目数与写入后存活时间（秒），TTL兜底了失效消息丢失时的最大不一致时间
+    public static final Long CACHE_LOCAL_MAX_SIZE = 1000L;
+    public static final Long CACHE_LOCAL_TTL = 10L;
+    // 本地缓存失效广播频道
+    public static final String CACHE_INVALIDATE_TOPIC = "cache:invalidate";
+
     public static final Long SHOP_TTL = 30L;
     public static final String SHOP_KEY = "shop:";
     public static final String SHOP_TYPE_KEY = "shopType";
@@ -15,14 +21,101 @@ public class RedisConstants {
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    // 缓存未命中时跨节点的加载锁（只由本节点single-flight的leader获取），等待时间与持有时间（秒）
+    public static final String CACHE_LOAD_LOCK_PREFIX = "lock:load:";
+    public static final Long CACHE_LOAD_LOCK_WAIT = 3L;
+    public static final Long CACHE_LOAD_LOCK_TTL = 10L;
+    // 旧数据中没有记录重建耗时时，按该耗时（毫秒）计算提前刷新的概率
+    public static final Long CACHE_REBUILD_COST_DEFAULT = 100L;
+    // 缓存重建线程池：线程数与等待队列长度，队列满时不再重建，继续返回旧数据
+    public static final int CACHE_REBUILD_THREADS = 10;
+    public static final int CACHE_REBUILD_QUEUE_SIZE = 200;
+    // 缓存数据的影子副本前缀：比数据多保留一段时间，数据库故障时返回
+    public static final String CACHE_STALE_PREFIX = "stale:";
+    // 缓存未命中时查询数据库的线程数与等待队列长度
+    public static final int CACHE_DB_THREADS = 20;
+    public static final int CACHE_DB_QUEUE_SIZE = 200;
+    // 热点key探测的滑动窗口：分片数与每片时长（秒），即统计最近60秒的访问次数
+    public static final int HOT_KEY_WINDOW_SLICES = 6;
+    public static final long HOT_KEY_SLICE_SECONDS = 10L;
+    // 负缓存：本地记录的最大条目数，key确认不存在的次数保留时间（分钟）
+    public static final long CACHE_NEGATIVE_LOCAL_MAX_SIZE = 100000L;
+    public static final long CACHE_MISS_COUNT_TTL = 60L;
+    // 区间拒绝：每块id数量，识别区间扫描的窗口（秒），拒绝表本地副本的有效期（秒），拒绝表key前缀（后接缓存key前缀）
+    public static final int CACHE_DENY_BLOCK = 32;
+    public static final long CACHE_DENY_WINDOW = 60L;
+    public static final long CACHE_DENY_LOCAL_TTL = 30L;
+    public static final String CACHE_DENY_KEY_PREFIX = "cache:deny:";
+
+    // 秒杀库存与一人一单集合（按分桶拆分，key后接 {优惠券id:分桶号}），分桶数量（不超过32）
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final int SECKILL_STOCK_BUCKETS = 8;
+    // 优惠券售罄通知频道；本地售罄位图只记录id小于该值的优惠券
+    public static final String SECKILL_SOLD_OUT_TOPIC = "seckill:soldout";
+    public static final long SECKILL_SOLD_OUT_MAX_ID = 1L << 24;
+    // 订单消息pending-list的接管：间隔（秒），每次最多检查的消息数，重新投递的最大退避时间（毫秒）
+    public static final long SECKILL_RECLAIM_INTERVAL = 5L;
+    public static final long SECKILL_RECLAIM_COUNT = 100L;
+    public static final long SECKILL_RETRY_MAX_BACKOFF = 60000L;
+    // 没有pending消息且空闲超过该时间（毫秒）的其他节点消费者视为已下线，从消费者组中删除
+    public static final long SECKILL_CONSUMER_EXPIRE = 3600000L;
+    // 订单发件箱没有到期订单时的轮询间隔（毫秒）
+    public static final long SECKILL_OUTBOX_POLL_INTERVAL = 200L;
+    // memory订单队列的缓冲区已满时，下单请求最多等待的时间（毫秒），超时后回补库存并返回失败
+    public static final long SECKILL_PUBLISH_TIMEOUT = 100L;
+    // 秒杀准入：令牌桶与等候室状态、排队凭证（key后接 {优惠券id}），有效期（秒），节点预领令牌的有效期（毫秒）
+    public static final String SECKILL_ADMISSION_KEY = "seckill:admission:";
+    public static final String SECKILL_TICKET_KEY = "seckill:ticket:";
+    public static final long SECKILL_ADMISSION_TTL = 3600L;
+    public static final long SECKILL_ADMISSION_LEASE_MILLIS = 1000L;
 
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    // 笔记缓存（Feed流按id批量查询），点赞数变化时删除
+    public static final String BLOG_KEY = "blog:";
+    public static final Long BLOG_TTL = 30L;
 
     public static final String FEED_KEY = "feed:";
+    // 大V（粉丝数达到推送阈值的作者）的发件箱，粉丝读取Feed流时拉取合并；大V作者集合
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_CELEBRITY_KEY = "feed:celebrities";
+    // Feed流推送任务队列与推送进度（任务id -> "粉丝主键游标,已推送数量"）；任务空闲超过该秒数时被其他节点接管，每次接管检查的数量
+    public static final String FEED_FANOUT_STREAM = "stream.feed.fanout";
+    public static final String FEED_FANOUT_PROGRESS_KEY = "feed:fanout:progress";
+    public static final long FEED_FANOUT_RECLAIM_IDLE = 30L;
+    public static final long FEED_FANOUT_RECLAIM_COUNT = 100L;
+    // 用户最近活跃时间（读取Feed流、登录）；收件箱已被回收的用户；回收检查间隔（分钟）与每批数量；重建收件箱时最多读取的关注数
+    public static final String FEED_ACTIVE_KEY = "feed:active";
+    public static final String FEED_COMPACTED_KEY = "feed:compacted";
+    public static final long FEED_COMPACT_INTERVAL = 60L;
+    public static final long FEED_COMPACT_BATCH = 500L;
+    public static final int FEED_REBUILD_MAX_FOLLOWEES = 2000;
 
     public static final String SHOP_GEO_KEY = "shop:geo:";
 
+    // 商铺id布隆过滤器；商铺变更流（各节点据此增量同步本地镜像），只保留最近的消息；本地镜像整体重新加载的间隔（分钟）
+    public static final String SHOP_BLOOM_FILTER = "shop:bloom:filter";
+    public static final String SHOP_CHANGE_STREAM = "stream.shops";
+    public static final long SHOP_CHANGE_STREAM_MAX_LEN = 10000L;
+    public static final String SHOP_CHANGE_CREATE = "create";
+    public static final String SHOP_CHANGE_DELETE = "delete";
+    public static final long SHOP_BLOOM_RELOAD_MINUTES = 5L;
+    // 商铺布隆过滤器初始化：第0层容量 = 商铺数量 * 余量倍数（不小于最小容量），误判率，从数据库按id范围分批加载的批大小
+    public static final long SHOP_BLOOM_MIN_CAPACITY = 1000L;
+    public static final long SHOP_BLOOM_HEADROOM = 2L;
+    public static final double SHOP_BLOOM_FPP = 0.01;
+    public static final int SHOP_BLOOM_BATCH_SIZE = 1000;
+    public static final String LOCK_SHOP_BLOOM_INIT = "lock:shop:bloom:init";
+    // 商铺布谷鸟过滤器（支持删除，只在本地内存中）：容量 = 商铺数量 * 余量倍数，从数据库整体重建的间隔（分钟），重建后快照的保留时间（秒）
+    public static final long SHOP_CUCKOO_HEADROOM = 2L;
+    public static final long SHOP_CUCKOO_REBUILD_MINUTES = 60L;
+    public static final long SHOP_CUCKOO_SNAPSHOT_GRACE_SECONDS = 30L;
+
     public static final String USER_SIGN_KEY = "sign:";
 
+    // 雪花ID生成器：workerId租约（秒，每三分之一有效期续期一次），最多允许的时钟回拨（秒），超过后拒绝生成ID
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final long ID_WORKER_TTL = 30L;
+    public static final long ID_MAX_CLOCK_BACKWARD = 5L;
+
 }
@@ -11,5 +11,9 @@ import java.time.LocalDateTime;
 @Data
 public class RedisData {
     private LocalDateTime expireTime;
+    /**
+     * 上一次重建缓存（查询数据库）的耗时，单位毫秒，用于概率提前刷新；旧数据中为null
+     */
+    private Long rebuildCost;
     private Object data;
 }
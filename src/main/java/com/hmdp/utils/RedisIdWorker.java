@@ -1,15 +1,23 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-@Component
+@Slf4j
 @SuppressWarnings({"all"})
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
     /**
      * 开始时间戳
      */
@@ -19,32 +27,220 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
-    private final StringRedisTemplate stringRedisTemplate;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    /**
+     * 号段用掉这个比例时，在后台预取下一个号段
+     */
+    private static final double PREFETCH_RATIO = 0.2;
+
+    /**
+     * 序列号来源：对key原子地增加delta，返回增加之后的值（Redis的INCRBY）
+     */
+    public interface SequenceSource {
+        long incrementBy(String key, long delta);
+    }
+
+    private final SequenceSource source;
+
+    /**
+     * 每次从Redis领取的序列号数量（号段大小），1表示不使用号段，每个ID一次INCR
+     */
+    private final long step;
+
+    /**
+     * 当天的信息（本地时区），过了当天再重新计算，nextId不再每次格式化日期
+     */
+    private static final class Day {
+        private final long startMillis;
+        private final long endMillis;
+        private final String date;
+        // 本地时区与UTC的偏移（秒）：时间戳按本地时间计算，与之前生成的ID保持一致
+        private final long offsetSeconds;
+
+        private Day(long startMillis, long endMillis, String date, long offsetSeconds) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.date = date;
+            this.offsetSeconds = offsetSeconds;
+        }
+    }
+
+    /**
+     * 号段：当天序列号中的 [cursor, end)
+     */
+    private static final class Segment {
+        private final long dayStart;
+        private final AtomicLong cursor;
+        private final long end;
+        // 发出这个序列号时开始预取下一个号段
+        private final long watermark;
+
+        private Segment(long dayStart, long start, long end, long watermark) {
+            this.dayStart = dayStart;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.watermark = watermark;
+        }
+    }
+
+    /**
+     * 一个业务前缀的号段：当前号段和预取好的下一个号段
+     */
+    private static final class Segments {
+        private volatile Segment current;
+        private Segment next;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+    }
+
+    private volatile Day day;
+
+    private final Map<String, Segments> segments = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, long step) {
+        this(stringRedisTemplate.opsForValue()::increment, step);
+    }
+
+    public RedisIdWorker(SequenceSource source, long step) {
+        this.source = source;
+        this.step = Math.max(step, 1);
+        this.day = computeDay(System.currentTimeMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        prefetchExecutor.shutdownNow();
     }
 
     /*
     * 分布式系统中生成订单号、流水号，这个方法实现了一个全局唯一ID生成器
     *  ID由两部分组成：              时间戳(31位)：精确到秒，可使用69年          序列号(32位)：每秒最多生成2^32个不同ID
+    *  序列号按天计数，Redis中的key格式为"icr:业务前缀:年:月:日"（避免超过redis单个键的上限2的32次方，也利于统计每天的数量）
+    *  号段模式：每个节点一次用INCRBY领取step个序列号，在本地用原子计数器逐个发出，用掉一部分后在后台预取下一个号段，
+    *  绝大多数调用不访问Redis、不分配对象；节点重启时没有用完的序列号作废（序列号只要求唯一，不要求连续）
     * */
+    @Override
     public long nextId(String keyPrefix) {//keyPrefix代表业务
         // 1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);//得到当前秒数
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        long nowMillis = System.currentTimeMillis();
+        Day today = today(nowMillis);
+        long timestamp = nowMillis / 1000 + today.offsetSeconds - BEGIN_TIMESTAMP;
 
         // 2.生成序列号
-        // 2.1.获取当前日期，精确到天 作用：1.避免超过redis单个键的上限2的32次方    2.利于统计每天或者每月或者每年
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        //Redis中的key格式为"icr:业务前缀:年:月:日"
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);//保证不同天下单有着不同的key
+        long count = nextSequence(keyPrefix, today);
 
         // 3.拼接并返回
         // 将timestamp左移32位，末尾补32个0，然后与count做OR运算
         // 相当于把时间戳和序列号拼接在一起
         return timestamp << COUNT_BITS | count;
     }
+
+    private long nextSequence(String keyPrefix, Day today) {
+        if (step == 1) {
+            //保证不同天下单有着不同的key
+            return source.incrementBy(key(keyPrefix, today), 1);
+        }
+        Segments s = segments.get(keyPrefix);
+        if (s == null) {
+            s = segments.computeIfAbsent(keyPrefix, k -> new Segments());
+        }
+        Segment segment = s.current;
+        while (true) {
+            // 号段只在领取它的那一天使用：第二天的key从1重新计数，继续使用前一天的号段会与第二天的序列号重复
+            if (segment != null && segment.dayStart == today.startMillis) {
+                long count = segment.cursor.getAndIncrement();
+                if (count < segment.end) {
+                    if (count == segment.watermark) {
+                        prefetch(keyPrefix, s, today);
+                    }
+                    return count;
+                }
+            }
+            segment = switchSegment(keyPrefix, s, segment, today);
+        }
+    }
+
+    /**
+     * 当前号段用完（或者已经过了当天）：换成预取好的号段，没有预取好时同步领取
+     */
+    private Segment switchSegment(String keyPrefix, Segments s, Segment exhausted, Day today) {
+        synchronized (s) {
+            if (s.current != exhausted) {
+                // 其他线程已经换过了
+                return s.current;
+            }
+            Segment next = s.next;
+            s.next = null;
+            if (next == null || next.dayStart != today.startMillis) {
+                next = lease(keyPrefix, today);
+            }
+            s.current = next;
+            return next;
+        }
+    }
+
+    /**
+     * 在后台领取下一个号段（同一个业务前缀同时只有一个预取任务）
+     */
+    private void prefetch(String keyPrefix, Segments s, Day today) {
+        if (!s.prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            prefetchExecutor.submit(() -> {
+                try {
+                    Segment next = lease(keyPrefix, today);
+                    synchronized (s) {
+                        if (s.next == null) {
+                            s.next = next;
+                        }
+                    }
+                } catch (Exception e) {
+                    // 预取失败不影响发号，当前号段用完时会同步领取
+                    log.error("预取ID号段失败：{}", keyPrefix, e);
+                } finally {
+                    s.prefetching.set(false);
+                }
+            });
+        } catch (Exception e) {
+            s.prefetching.set(false);
+        }
+    }
+
+    /**
+     * INCRBY icr:业务前缀:年:月:日 step，得到号段 [end - step + 1, end]
+     */
+    private Segment lease(String keyPrefix, Day today) {
+        long end = source.incrementBy(key(keyPrefix, today), step);
+        long start = end - step + 1;
+        return new Segment(today.startMillis, start, end + 1, start + (long) (step * (1 - PREFETCH_RATIO)));
+    }
+
+    private static String key(String keyPrefix, Day today) {
+        return "icr:" + keyPrefix + ":" + today.date;
+    }
+
+    private Day today(long nowMillis) {
+        Day d = day;
+        if (nowMillis >= d.endMillis || nowMillis < d.startMillis) {
+            d = computeDay(nowMillis);
+            day = d;
+        }
+        return d;
+    }
+
+    private static Day computeDay(long nowMillis) {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate date = Instant.ofEpochMilli(nowMillis).atZone(zone).toLocalDate();
+        long start = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        long end = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        long offset = zone.getRules().getOffset(Instant.ofEpochMilli(nowMillis)).getTotalSeconds();
+        return new Day(start, end, date.format(DATE_FORMATTER), offset);
+    }
 }
@@ -0,0 +1,331 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * Redis Stream订单队列
+ * 1.秒杀脚本扣库存的同时XADD写入消息（Stream作为KEYS传入脚本），扣库存与入队是原子的
+ *   Stream与库存分桶不在同一个槽，所以这个队列只支持单节点Redis，Redis Cluster上请使用memory或outbox队列
+ * 2.每个节点若干个消费线程，每个线程是消费者组中的一个消费者，一次读取一批消息在一个事务中创建订单，再用一次XACK确认
+ * 3.处理失败的消息留在pending-list中，由reclaimer按退避时间用XCLAIM接管后重新处理，投递次数达到上限转入死信队列
+ * 4.已经下线的消费者（名称中带进程号，重启后不会再使用）没有pending消息且长时间空闲时，用XGROUP DELCONSUMER删除
+ */
+@Slf4j
+public class RedisStreamOrderQueue implements OrderQueue {
+
+    private static final String GROUP_NAME = "g1";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String queueName;
+    private final String dlqName;
+    private final int consumers;
+    private final int batchSize;
+
+    /**
+     * 每条消息最多投递的次数，以及重新投递的基础退避时间（毫秒），之后每次翻倍
+     */
+    private final long maxDeliveries;
+    private final long retryBackoff;
+
+    /**
+     * 接管消息的最小空闲时间（毫秒），必须远大于处理一批消息的最长耗时，否则会接管消费者还在处理的消息，导致重复处理
+     * 退避时间在它的基础上叠加
+     */
+    private final long minIdle;
+
+    private Handler handler;
+
+    // 订单处理线程池：每个线程是消费者组中的一个消费者，多个线程、多个节点一起消费
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running;
+
+    // 定时接管pending-list中的消息
+    private final ScheduledExecutorService reclaimExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-order-reclaim");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 本节点消费者名称的前缀（进程名pid@host），以及接管消息时使用的消费者名称
+    private String node;
+    private String reclaimer;
+
+    /**
+     * @param queueName 消息队列名称，死信队列为 队列名称.dlq
+     */
+    public RedisStreamOrderQueue(StringRedisTemplate stringRedisTemplate, String queueName, int consumers, int batchSize,
+                                 long maxDeliveries, long retryBackoff, long minIdle) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.queueName = queueName;
+        this.dlqName = queueName + ".dlq";
+        this.consumers = consumers;
+        this.batchSize = batchSize;
+        this.maxDeliveries = maxDeliveries;
+        this.retryBackoff = retryBackoff;
+        this.minIdle = minIdle;
+    }
+
+    @Override
+    public String scriptStream() {
+        return queueName;
+    }
+
+    /**
+     * XADD stream.orders * userId .. voucherId .. id .. buySeq ..（字段名与VoucherOrder中的属性名保持一致，方便创建订单）
+     */
+    @Override
+    public void publish(VoucherOrder order) {
+        Map<String, String> values = new HashMap<>(4);
+        values.put("userId", order.getUserId().toString());
+        values.put("voucherId", order.getVoucherId().toString());
+        values.put("id", order.getId().toString());
+        if (order.getBuySeq() != null) {
+            values.put("buySeq", order.getBuySeq().toString());
+        }
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(queueName).ofMap(values));
+    }
+
+    @Override
+    public void start(Handler handler) {
+        this.handler = handler;
+        // 创建消息队列
+        if (Boolean.FALSE.equals(stringRedisTemplate.hasKey(queueName))) {
+            stringRedisTemplate.opsForStream().createGroup(queueName, ReadOffset.from("0"), GROUP_NAME);
+            log.debug("Stream队列创建成功");
+        }
+        // 提交订单处理任务到线程池，消费者名称 = 进程名（pid@host）-线程序号，每个节点的每个线程都不同
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumers, r -> {
+            Thread thread = new Thread(r, "seckill-order");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        node = ManagementFactory.getRuntimeMXBean().getName();
+        for (int i = 0; i < consumers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(node + "-" + i));
+        }
+        reclaimer = node + "-reclaim";
+        reclaimExecutor.scheduleWithFixedDelay(this::reclaimPending, SECKILL_RECLAIM_INTERVAL, SECKILL_RECLAIM_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (seckillOrderExecutor != null) {
+            seckillOrderExecutor.shutdownNow();
+        }
+        reclaimExecutor.shutdownNow();
+    }
+
+    private class VoucherOrderHandler implements Runnable{
+        private final String consumer;
+
+        private VoucherOrderHandler(String consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            // 循环从队列中批量获取订单并处理
+            while (running){
+                try {
+                    // 1.批量获取消息队列中的订单消息 xreadgroup group g1 consumer count n block 2000 streams stream.orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(GROUP_NAME, consumer),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                    );
+//                    2.判断消息获取是否成功
+                    if (list == null || list.isEmpty()){
+//                        如果获取失败,说明没有消息,继续下一次循环
+                        continue;
+                    }
+//                    3.一批订单在一个事务中创建，处理完用一次XACK确认
+                    handleBatch(list);
+                } catch (Exception e) {
+                    if (!running) {
+                        return;
+                    }
+                    // 处理失败的消息留在pending-list中，由reclaimer按退避时间重新投递，这里不再原地重试
+                    log.error("处理订单异常",e);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理一批订单消息：一个事务创建整批订单，成功后一次XACK确认整批消息
+     * 整批失败时（例如某条消息的数据有问题）逐条处理，只有处理失败的消息留在pending-list中
+     */
+    private void handleBatch(List<MapRecord<String, Object, Object>> list) {
+//        1.解析消息中的订单信息
+        List<VoucherOrder> orders = new ArrayList<>(list.size());
+        for (MapRecord<String, Object, Object> record : list) {
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+//        2.批量创建订单
+        try {
+            handler.handleBatch(orders);
+        } catch (Exception e) {
+            log.warn("批量创建订单失败，改为逐条处理，数量：{}", orders.size(), e);
+            for (int i = 0; i < list.size(); i++) {
+                try {
+                    handler.handle(orders.get(i));
+                    stringRedisTemplate.opsForStream().acknowledge(queueName, GROUP_NAME, list.get(i).getId());
+                } catch (Exception ex) {
+                    log.error("处理订单异常，消息留在pending-list中：{}", list.get(i).getId(), ex);
+                }
+            }
+            return;
+        }
+//        3.ack确认 XACK stream.orders g1 id1 id2 ...
+        RecordId[] ids = list.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(queueName, GROUP_NAME, ids);
+    }
+
+    /**
+     * 接管pending-list中的消息（所有消费者的，包括已经下线的消费者）
+     * 1.XPENDING stream.orders g1 start + n：每条消息的空闲时间（距上次投递）与投递次数，按消息id分页读完整个pending-list
+     * 2.空闲时间超过 minIdle + 退避时间（retryBackoff * 2^(投递次数-1)，最多SECKILL_RETRY_MAX_BACKOFF）的消息用XCLAIM接管，
+     *   minIdle远大于一批消息的处理耗时，不会接管消费者还在处理的消息；
+     *   XCLAIM带最小空闲时间，多个节点同时接管同一条消息时只有一个能成功，接管后投递次数加一
+     * 3.投递次数达到上限的消息转入死信队列stream.orders.dlq并ACK，不再阻塞订单处理；其余的重新处理
+     * 4.最后清理已经下线的消费者
+     */
+    private void reclaimPending() {
+        try {
+            Range<String> range = Range.unbounded();
+            while (true) {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(queueName, GROUP_NAME, range, SECKILL_RECLAIM_COUNT);
+                for (PendingMessage message : pending) {
+                    reclaim(message);
+                }
+                if (pending.size() < SECKILL_RECLAIM_COUNT) {
+                    break;
+                }
+                // 下一页从最后一条消息的下一个id开始（id = 毫秒时间戳-序号）
+                RecordId last = pending.get(pending.size() - 1).getId();
+                String next = last.getTimestamp() + "-" + (last.getSequence() + 1);
+                range = Range.rightUnbounded(Range.Bound.inclusive(next));
+            }
+            removeDeadConsumers();
+        } catch (Exception e) {
+            log.error("接管pending-list消息异常", e);
+        }
+    }
+
+    private void reclaim(PendingMessage message) {
+        long deliveries = message.getTotalDeliveryCount();
+        long idle = minIdle + Math.min(retryBackoff << Math.min(deliveries - 1, 20), SECKILL_RETRY_MAX_BACKOFF);
+        if (message.getElapsedTimeSinceLastDelivery().toMillis() < idle) {
+            return;
+        }
+        MapRecord<String, Object, Object> record = claim(message.getId(), idle);
+        if (record == null) {
+            // 已经被其他节点接管
+            return;
+        }
+        if (deliveries >= maxDeliveries) {
+            deadLetter(record, deliveries);
+            return;
+        }
+        try {
+            handler.handle(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            stringRedisTemplate.opsForStream().acknowledge(queueName, GROUP_NAME, record.getId());
+        } catch (Exception e) {
+            log.error("重新处理订单失败，第{}次：{}", deliveries + 1, record.getId(), e);
+        }
+    }
+
+    /**
+     * 删除已经下线的消费者：XINFO CONSUMERS中没有pending消息、空闲超过SECKILL_CONSUMER_EXPIRE且不属于本节点的消费者
+     * 下线消费者的pending消息会先被接管，之后才会被删除；误删了仍在线的消费者也没有影响，XREADGROUP会自动重新创建
+     */
+    private void removeDeadConsumers() {
+        StreamInfo.XInfoConsumers infos = stringRedisTemplate.opsForStream().consumers(queueName, GROUP_NAME);
+        for (int i = 0; i < infos.size(); i++) {
+            StreamInfo.XInfoConsumer info = infos.get(i);
+            String name = info.consumerName();
+            if (name.startsWith(node + "-") || info.pendingCount() > 0 || info.idleTimeMs() < SECKILL_CONSUMER_EXPIRE) {
+                continue;
+            }
+            stringRedisTemplate.opsForStream().deleteConsumer(queueName, Consumer.from(GROUP_NAME, name));
+            log.info("删除已下线的订单消费者：{}", name);
+        }
+    }
+
+    /**
+     * XCLAIM stream.orders g1 reclaimer minIdle id：接管一条消息并返回消息内容，没有接管成功返回null
+     * （StreamOperations没有提供claim，直接使用连接上的xClaim）
+     */
+    private MapRecord<String, Object, Object> claim(RecordId id, long minIdle) {
+        List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(queueName.getBytes(StandardCharsets.UTF_8), GROUP_NAME, reclaimer,
+                        Duration.ofMillis(minIdle), id));
+        if (claimed == null || claimed.isEmpty()) {
+            return null;
+        }
+        Map<Object, Object> values = new HashMap<>();
+        claimed.get(0).getValue().forEach((k, v) ->
+                values.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+        return StreamRecords.newRecord().in(queueName).withId(id).ofMap(values);
+    }
+
+    /**
+     * 把消息转入死信队列（记录原消息id与投递次数），再ACK原消息
+     */
+    private void deadLetter(MapRecord<String, Object, Object> record, long deliveries) {
+        Map<String, String> values = new HashMap<>();
+        record.getValue().forEach((k, v) -> values.put(k.toString(), v.toString()));
+        values.put("sourceId", record.getId().getValue());
+        values.put("deliveries", String.valueOf(deliveries));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(dlqName).ofMap(values));
+        stringRedisTemplate.opsForStream().acknowledge(queueName, GROUP_NAME, record.getId());
+        log.error("订单消息投递{}次仍然失败，转入死信队列：{}", deliveries, values);
+    }
+
+    /**
+     * 重放死信队列：把最早的count条消息重新写入订单队列（投递次数从0开始），再从死信队列中删除
+     */
+    @Override
+    public int replayDeadLetters(int count) {
+        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream()
+                .range(dlqName, Range.unbounded(), RedisZSetCommands.Limit.limit().count(count));
+        if (list == null || list.isEmpty()) {
+            return 0;
+        }
+        for (MapRecord<String, Object, Object> record : list) {
+            publish(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            stringRedisTemplate.opsForStream().delete(dlqName, record.getId());
+        }
+        return list.size();
+    }
+}
@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 多生产者、单消费者的环形缓冲区（LMAX Disruptor的思路，项目中没有引入Disruptor，这里只实现用到的部分）
+ * 1.槽位数组在创建时一次分配（容量为2的幂，下标 = 序号 & mask），之后不再分配节点，没有锁
+ * 2.生产者用CAS在claimed上领取序号，写入槽位后在available中记录这个槽位当前的圈数（序号 >>> shift），表示已经发布
+ *   多个生产者领取的序号可能乱序发布，消费者按序号顺序读取，遇到还没有发布的槽位就停下
+ * 3.消费者一次取走所有连续已发布的元素（自然批处理：积压越多批次越大），再推进consumed，释放槽位给生产者
+ * 4.缓冲区满时生产者自旋等待（背压），不丢弃元素
+ */
+public class RingBuffer<E> {
+
+    private final Object[] entries;
+    private final int mask;
+    private final int shift;
+
+    /**
+     * 每个槽位已经发布的圈数，-1表示还没有发布过
+     */
+    private final AtomicIntegerArray available;
+
+    /**
+     * 生产者已经领取的最大序号
+     */
+    private final AtomicLong claimed = new AtomicLong(-1);
+
+    /**
+     * 消费者已经处理完的最大序号（只有消费者线程写入）
+     */
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    /**
+     * @param capacity 容量，向上取整为2的幂
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        this.shift = Integer.numberOfTrailingZeros(size);
+        this.available = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            available.set(i, -1);
+        }
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    /**
+     * 放入元素，缓冲区已满时返回false
+     */
+    public boolean offer(E e) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            // 领取的序号追上了消费者还没有释放的槽位
+            if (sequence + 1 - entries.length > consumed.get()) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        publish(sequence + 1, e);
+        return true;
+    }
+
+    /**
+     * 放入元素，缓冲区已满时最多等待timeout，仍然没有空闲槽位返回false
+     * 与put不同，等待期间不占用序号（占用之后无法撤销），所以不保证先到先得
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(1000);
+        }
+        return true;
+    }
+
+    /**
+     * 放入元素，缓冲区已满时等待消费者释放槽位
+     */
+    public void put(E e) {
+        long sequence = claimed.getAndIncrement() + 1;
+        // 先领取序号再等待槽位，等待期间后来的生产者排在后面，保证先到先得
+        while (sequence - entries.length > consumed.get()) {
+            LockSupport.parkNanos(1000);
+        }
+        publish(sequence, e);
+    }
+
+    private void publish(long sequence, E e) {
+        int index = (int) sequence & mask;
+        entries[index] = e;
+        // lazySet：写入元素之后再发布圈数，消费者看到圈数时一定能看到元素
+        available.lazySet(index, (int) (sequence >>> shift));
+    }
+
+    /**
+     * 取出最多max个连续已发布的元素（只能由一个消费者线程调用）
+     *
+     * @return 取出的数量
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(List<E> out, int max) {
+        long next = consumed.get() + 1;
+        int n = 0;
+        while (n < max) {
+            int index = (int) next & mask;
+            if (available.get(index) != (int) (next >>> shift)) {
+                break;
+            }
+            out.add((E) entries[index]);
+            entries[index] = null;
+            next++;
+            n++;
+        }
+        if (n > 0) {
+            consumed.lazySet(next - 1);
+        }
+        return n;
+    }
+
+    /**
+     * 已经放入、还没有取出的元素数量（近似值）
+     */
+    public long size() {
+        return Math.max(claimed.get() - consumed.get(), 0);
+    }
+}
@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RAtomicLong;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBitSetAsync;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RMap;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.misc.Hash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 可扩容的布隆过滤器（Scalable Bloom Filter），由多层Redisson布隆过滤器组成
+ * 普通布隆过滤器的容量在初始化时就固定了，元素数量超过容量后误判率会迅速接近100%
+ * 这里当最新一层写满时自动新建一层：每层容量是上一层的GROWTH倍，误判率是上一层的TIGHTENING倍，
+ * 总误判率不超过 fpp / (1 - TIGHTENING)，元素数量增长多少倍都不会退化
+ * 判断时任意一层命中即可能存在；新元素总是写入最新一层
+ *
+ * Redis中的数据：
+ * name:meta        第0层的容量与误判率，以及全量加载完成的标记（loaded）
+ * name:layers      当前层数
+ * name:{i}         第i层的Redisson布隆过滤器
+ * name:{i}:count   第i层已写入的元素数量
+ */
+@Slf4j
+@SuppressWarnings({"all"})
+public class ScalableBloomFilter implements MembershipFilter<Long> {
+
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+
+    private final RedissonClient redissonClient;
+    private final String name;
+
+    /**
+     * 各层的RBloomFilter对象，缓存起来避免每次都重新读取配置（容量、哈希次数）
+     */
+    private final Map<Integer, RBloomFilter<Long>> layers = new ConcurrentHashMap<>();
+
+    private volatile long capacity;
+    private volatile double falseProbability;
+
+    public ScalableBloomFilter(RedissonClient redissonClient, String name) {
+        this.redissonClient = redissonClient;
+        this.name = name;
+    }
+
+    /**
+     * 初始化（只有第一次调用生效）
+     *
+     * @param initialCapacity  第0层容量
+     * @param falseProbability 第0层误判率
+     * @return 是否是本次调用完成的初始化；false表示已经存在
+     */
+    public boolean tryInit(long initialCapacity, double falseProbability) {
+        RMap<String, String> meta = redissonClient.getMap(name + ":meta", StringCodec.INSTANCE);
+        if (!meta.fastPutIfAbsent("capacity", String.valueOf(initialCapacity))) {
+            return false;
+        }
+        meta.put("fpp", String.valueOf(falseProbability));
+        redissonClient.getBloomFilter(layerName(0), LongCodec.INSTANCE).tryInit(initialCapacity, falseProbability);
+        redissonClient.getAtomicLong(name + ":layers").set(1);
+        return true;
+    }
+
+    public boolean isExists() {
+        return redissonClient.getAtomicLong(name + ":layers").get() > 0;
+    }
+
+    /**
+     * 全量加载是否已经完成：tryInit之后第0层就已经存在，不能用isExists判断，否则加载中途退出会留下一个永久不完整的过滤器
+     */
+    public boolean isLoaded() {
+        return redissonClient.getMap(name + ":meta", StringCodec.INSTANCE).containsKey("loaded");
+    }
+
+    /**
+     * 全量加载完成后调用，记录加载的元素数量
+     */
+    public void markLoaded(long loaded) {
+        redissonClient.<String, String>getMap(name + ":meta", StringCodec.INSTANCE).put("loaded", String.valueOf(loaded));
+    }
+
+    /**
+     * 各层已写入的元素数量之和（重复写入的元素也会计数，所以只会多不会少）
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < getLayerCount(); i++) {
+            total += redissonClient.getAtomicLong(layerName(i) + ":count").get();
+        }
+        return total;
+    }
+
+    public int getLayerCount() {
+        return (int) redissonClient.getAtomicLong(name + ":layers").get();
+    }
+
+    public String layerName(int layer) {
+        return name + ":" + layer;
+    }
+
+    public RBloomFilter<Long> getLayer(int layer) {
+        return layers.computeIfAbsent(layer, i -> {
+            RBloomFilter<Long> filter = redissonClient.getBloomFilter(layerName(i), LongCodec.INSTANCE);
+            // 触发读取配置，之后getSize()/getHashIterations()不再访问Redis
+            filter.getSize();
+            return filter;
+        });
+    }
+
+    /**
+     * 逐层判断（每层一次Redis访问），只在没有本地镜像时使用
+     */
+    @Override
+    public boolean contains(Long id) {
+        int count = getLayerCount();
+        for (int i = count - 1; i >= 0; i--) {
+            if (getLayer(i).contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void add(Long id) {
+        addAndGetLayer(id);
+    }
+
+    /**
+     * 添加元素到最新一层，写满时扩容
+     *
+     * @return 写入的层号
+     */
+    public int addAndGetLayer(Long id) {
+        int layer = getLayerCount() - 1;
+        if (getLayer(layer).add(id)) {
+            // 只有真正置位了（新元素）才计数
+            RAtomicLong count = redissonClient.getAtomicLong(layerName(layer) + ":count");
+            if (count.incrementAndGet() >= layerCapacity(layer)) {
+                grow(layer);
+            }
+        }
+        return layer;
+    }
+
+    /**
+     * 批量添加：按层算好位序号，用一次pipeline（RBatch）发送所有SETBIT，不再逐个调用add
+     *
+     * @return 写入的最后一层层号
+     */
+    public int bulkAdd(List<Long> ids) {
+        int from = 0;
+        int layer = getLayerCount() - 1;
+        while (from < ids.size()) {
+            layer = getLayerCount() - 1;
+            RBloomFilter<Long> filter = getLayer(layer);
+            RAtomicLong count = redissonClient.getAtomicLong(layerName(layer) + ":count");
+            // 本层剩余容量内的部分写入本层，其余的扩容后写入下一层
+            long remaining = Math.max(layerCapacity(layer) - count.get(), 1);
+            int to = (int) Math.min(ids.size(), from + remaining);
+            RBatch batch = redissonClient.createBatch(BatchOptions.defaults());
+            RBitSetAsync bitSet = batch.getBitSet(layerName(layer));
+            for (int i = from; i < to; i++) {
+                for (long index : indexes(ids.get(i), filter.getHashIterations(), filter.getSize())) {
+                    bitSet.setAsync(index);
+                }
+            }
+            batch.execute();
+            if (count.addAndGet(to - from) >= layerCapacity(layer)) {
+                grow(layer);
+            }
+            from = to;
+        }
+        return layer;
+    }
+
+    /**
+     * 第full层已写满，新建下一层（先建好过滤器再增加层数，其他节点看到新层数时新层一定可用）
+     */
+    private void grow(int full) {
+        int next = full + 1;
+        redissonClient.getBloomFilter(layerName(next), LongCodec.INSTANCE)
+                .tryInit(layerCapacity(next), layerFalseProbability(next));
+        if (redissonClient.getAtomicLong(name + ":layers").compareAndSet(next, next + 1)) {
+            log.info("布隆过滤器{}第{}层已写满，扩容到{}层，新层容量：{}", name, full, next + 1, layerCapacity(next));
+        }
+    }
+
+    private long layerCapacity(int layer) {
+        readMeta();
+        return capacity * (long) Math.pow(GROWTH, layer);
+    }
+
+    private double layerFalseProbability(int layer) {
+        readMeta();
+        return falseProbability * Math.pow(TIGHTENING, layer);
+    }
+
+    private void readMeta() {
+        if (capacity > 0) {
+            return;
+        }
+        RMap<String, String> meta = redissonClient.getMap(name + ":meta", StringCodec.INSTANCE);
+        falseProbability = Double.parseDouble(meta.get("fpp"));
+        capacity = Long.parseLong(meta.get("capacity"));
+    }
+
+    /**
+     * 与RedissonBloomFilter相同的位序号计算：对LongCodec编码后的字节（十进制字符串）做128位HighwayHash，
+     * 再用两个64位哈希值做双重哈希
+     */
+    public static long[] indexes(Long id, int iterations, long size) {
+        long[] hash = Hash.hash128(Unpooled.wrappedBuffer(id.toString().getBytes(StandardCharsets.UTF_8)));
+        long[] indexes = new long[iterations];
+        long h = hash[0];
+        for (int i = 0; i < iterations; i++) {
+            indexes[i] = (h & Long.MAX_VALUE) % size;
+            if (i % 2 == 0) {
+                h += hash[1];
+            } else {
+                h += hash[0];
+            }
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀准入控制：每张优惠券一个令牌桶，限制真正进入秒杀脚本（以及之后的订单队列、数据库）的请求速率
+ * 1.令牌桶保存在Redis中，所有节点共享同一个速率；每个节点一次领取最多lease个令牌放在本地，
+ *   本地还有令牌时直接放行，不访问Redis（预领的令牌只在SECKILL_ADMISSION_LEASE_MILLIS内有效，过期作废）
+ * 2.领不到令牌的请求不返回失败，而是领取一个排队凭证（按先后编号），之后轮询凭证；
+ *   令牌先用来按顺序放行排队的凭证，有人排队时新请求不能插队；凭证放行后只能使用一次，并且只属于领取它的用户
+ * 3.rate <= 0 表示不限流
+ */
+@Component
+public class SeckillAdmission {
+
+    private static final DefaultRedisScript<Long> ADMISSION_SCRIPT;
+    static {
+        ADMISSION_SCRIPT = new DefaultRedisScript<>();
+        ADMISSION_SCRIPT.setLocation(new ClassPathResource("seckill_admission.lua"));
+        ADMISSION_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 每张优惠券每秒放行的请求数（所有节点合计）、令牌桶容量、每个节点一次预领的令牌数
+     */
+    @Value("${hmdp.seckill.admission.rate:1000}")
+    private int rate;
+
+    @Value("${hmdp.seckill.admission.burst:1000}")
+    private int burst;
+
+    @Value("${hmdp.seckill.admission.lease:20}")
+    private int lease;
+
+    /**
+     * 本节点预领的令牌
+     */
+    private static class Lease {
+        private final AtomicInteger tokens = new AtomicInteger();
+        private volatile long expireAt;
+
+        private boolean tryTake() {
+            if (System.currentTimeMillis() > expireAt) {
+                return false;
+            }
+            return tokens.getAndUpdate(t -> t > 0 ? t - 1 : 0) > 0;
+        }
+
+        private void refill(int n) {
+            expireAt = System.currentTimeMillis() + SECKILL_ADMISSION_LEASE_MILLIS;
+            tokens.set(n);
+        }
+    }
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private static List<String> keys(Long voucherId) {
+        return Arrays.asList(SECKILL_ADMISSION_KEY + "{" + voucherId + "}", SECKILL_TICKET_KEY + "{" + voucherId + "}");
+    }
+
+    /**
+     * 申请进入秒杀
+     *
+     * @return 0：放行；>0：排队凭证号
+     */
+    public long acquire(Long voucherId, Long userId) {
+        if (rate <= 0) {
+            return 0;
+        }
+        // 1.本地预领的令牌
+        Lease local = leases.computeIfAbsent(voucherId, k -> new Lease());
+        if (local.tryTake()) {
+            return 0;
+        }
+        // 2.从Redis领取一批令牌，一个自己用，其余留在本地；领不到则领取排队凭证
+        long r = execute(voucherId, "acquire", lease, userId);
+        if (r > 0) {
+            local.refill((int) r - 1);
+            return 0;
+        }
+        return -r;
+    }
+
+    /**
+     * 查询排队凭证
+     *
+     * @return 0：已经放行（凭证作废）；>0：前面还有多少个凭证；-1：凭证无效
+     */
+    public long poll(Long voucherId, Long userId, long ticket) {
+        return execute(voucherId, "poll", ticket, userId);
+    }
+
+    /**
+     * 按当前速率估算排在第position位需要等待的毫秒数
+     */
+    public long estimateWait(long position) {
+        return rate <= 0 ? 0 : position * 1000 / rate;
+    }
+
+    private long execute(Long voucherId, String op, long arg, Long userId) {
+        Long result = stringRedisTemplate.execute(ADMISSION_SCRIPT, keys(voucherId), op, String.valueOf(rate),
+                String.valueOf(Math.max(burst, 1)), String.valueOf(System.currentTimeMillis()),
+                String.valueOf(SECKILL_ADMISSION_TTL), String.valueOf(arg), userId.toString());
+        return result == null ? 0 : result;
+    }
+}
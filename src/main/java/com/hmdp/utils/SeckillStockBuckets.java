@@ -0,0 +1,244 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分桶
+ * 单个库存key上所有的抢购请求都串行在同一个key上（集群模式下还集中在同一个分片），库存拆分为SECKILL_STOCK_BUCKETS个分桶后各自独立扣减：
+ * 1.用户固定属于第 userId % 分桶数 个分桶（用户id分布均匀，效果与随机选择分桶相同），每人已购数量也按分桶拆分，
+ *   秒杀时间、每人限购和扣库存在同一个分桶中由一个脚本原子完成，绝大多数请求只需要一次脚本调用
+ * 2.用户所属的分桶卖完时，脚本在这个分桶中为用户占位（已购数量加一，保证不超过限购数量），再从随机位置开始依次尝试其他分桶
+ * 3.所有分桶都卖完时撤销占位，返回库存不足；本节点记录已经卖完的分桶，之后的请求不再尝试
+ * 4.整张优惠券卖完后在本地位图中标记售罄，并通过发布订阅通知其他节点；之后的请求在本地直接返回库存不足，
+ *   不再生成订单id、不再执行脚本；重新设置库存时清除所有节点的标记
+ * 集群模式：同一分桶的库存和已购数量key在同一个槽，但订单队列为Redis Stream时脚本还要写入Stream（另一个槽），
+ * 所以redis订单队列只支持单节点Redis；部署在Redis Cluster上时使用memory或outbox订单队列
+ */
+@Slf4j
+@Component
+public class SeckillStockBuckets {
+
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> STOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+        STOCK_SCRIPT = new DefaultRedisScript<>();
+        STOCK_SCRIPT.setLocation(new ClassPathResource("seckill_stock.lua"));
+        STOCK_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 用户所属分桶卖完、已经占位，需要从其他分桶扣库存
+     */
+    private static final int HOME_SOLD_OUT = 3;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 售罄通知：消息为 "1:优惠券id"（售罄）或 "0:优惠券id"（重新设置了库存）
+     */
+    private RTopic soldOutTopic;
+
+    /**
+     * 本节点已知售罄的优惠券（位序号为优惠券id）
+     */
+    private final ConcurrentBitSet soldOut = new ConcurrentBitSet();
+
+    /**
+     * 优惠券id -> 本节点已知卖完的分桶（位图）
+     */
+    private final Map<Long, AtomicInteger> soldOutBuckets = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        soldOutTopic = redissonClient.getTopic(SECKILL_SOLD_OUT_TOPIC, StringCodec.INSTANCE);
+        soldOutTopic.addListener(String.class, (channel, message) -> {
+            Long voucherId = Long.valueOf(message.substring(2));
+            if (message.charAt(0) == '1') {
+                markSoldOutLocally(voucherId);
+            } else {
+                resetLocally(voucherId);
+            }
+        });
+    }
+
+    /**
+     * 本地判断优惠券是否已经售罄（不访问Redis）
+     */
+    public boolean isSoldOut(Long voucherId) {
+        return voucherId < SECKILL_SOLD_OUT_MAX_ID && soldOut.get(voucherId);
+    }
+
+    private void markSoldOutLocally(Long voucherId) {
+        if (voucherId < SECKILL_SOLD_OUT_MAX_ID) {
+            soldOut.set(voucherId);
+        }
+    }
+
+    private void resetLocally(Long voucherId) {
+        if (voucherId < SECKILL_SOLD_OUT_MAX_ID) {
+            soldOut.clear(voucherId);
+        }
+        soldOutBuckets.remove(voucherId);
+    }
+
+    public static String stockKey(Long voucherId, int bucket) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    public static String orderKey(Long voucherId, int bucket) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    public static int bucketOf(Long userId) {
+        return (int) Math.floorMod(userId, (long) SECKILL_STOCK_BUCKETS);
+    }
+
+    /**
+     * 预加载秒杀券：把库存平均分配到各个分桶（余数分给前面的分桶），秒杀时间和每人限购数量在每个分桶中各保存一份
+     * （脚本只访问用户所属分桶的key，集群模式下不能再访问另一个槽中的key），用一次pipeline写入，并清除所有节点的售罄标记
+     *
+     * @param beginTime    秒杀开始时间，为null表示不限制
+     * @param endTime      秒杀结束时间，为null表示不限制
+     * @param perUserLimit 每人限购数量
+     */
+    public void init(Long voucherId, int stock, LocalDateTime beginTime, LocalDateTime endTime, int perUserLimit) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < SECKILL_STOCK_BUCKETS; i++) {
+                int bucketStock = stock / SECKILL_STOCK_BUCKETS + (i < stock % SECKILL_STOCK_BUCKETS ? 1 : 0);
+                Map<byte[], byte[]> meta = new HashMap<>(8);
+                meta.put(bytes("stock"), bytes(String.valueOf(bucketStock)));
+                meta.put(bytes("limit"), bytes(String.valueOf(perUserLimit)));
+                if (beginTime != null) {
+                    meta.put(bytes("begin"), bytes(String.valueOf(toMillis(beginTime))));
+                }
+                if (endTime != null) {
+                    meta.put(bytes("end"), bytes(String.valueOf(toMillis(endTime))));
+                }
+                // 先删除再写入：重新设置时去掉旧的字段（以及升级之前的字符串类型的库存key）
+                byte[] key = bytes(stockKey(voucherId, i));
+                connection.keyCommands().del(key);
+                connection.hashCommands().hMSet(key, meta);
+            }
+            return null;
+        });
+        resetLocally(voucherId);
+        soldOutTopic.publish("0:" + voucherId);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 判断购买资格（秒杀时间、每人限购）并扣库存，成功时把订单消息写入消息队列，并把购买序号和扣减库存的分桶号写入order
+     *
+     * @param order     订单（id、userId、voucherId）
+     * @param queueName 脚本直接写入的Stream名称（作为KEYS传入，只支持单节点Redis），为null时脚本只扣库存，由调用方把订单放入队列
+     * @return 0：成功；1：库存不足；2：超过每人限购数量；4：秒杀尚未开始；5：秒杀已经结束
+     */
+    public int tryAcquire(VoucherOrder order, String queueName) {
+        Long voucherId = order.getVoucherId();
+        Long userId = order.getUserId();
+        // 1.在用户所属的分桶中判断资格并扣库存
+        int home = bucketOf(userId);
+        List<String> keys = queueName == null
+                ? Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home))
+                : Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home), queueName);
+        List<Long> result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys,
+                voucherId.toString(), userId.toString(), order.getId().toString());
+        int r = result.get(0).intValue();
+        long buySeq = result.get(1);
+        if (r == 0) {
+            order.setBuySeq((int) buySeq).setStockBucket(home);
+        }
+        if (r != HOME_SOLD_OUT) {
+            return r;
+        }
+        String[] args = {voucherId.toString(), userId.toString(), order.getId().toString(), String.valueOf(buySeq)};
+        AtomicInteger soldOut = soldOutBuckets.computeIfAbsent(voucherId, k -> new AtomicInteger());
+        soldOut.accumulateAndGet(1 << home, (a, b) -> a | b);
+        // 2.所属分桶已经卖完（已占位）：从随机位置开始依次尝试其他还没有卖完的分桶
+        int start = ThreadLocalRandom.current().nextInt(SECKILL_STOCK_BUCKETS);
+        for (int i = 0; i < SECKILL_STOCK_BUCKETS; i++) {
+            int bucket = (start + i) % SECKILL_STOCK_BUCKETS;
+            if ((soldOut.get() & (1 << bucket)) != 0) {
+                continue;
+            }
+            List<String> stockKeys = queueName == null
+                    ? Collections.singletonList(stockKey(voucherId, bucket))
+                    : Arrays.asList(stockKey(voucherId, bucket), queueName);
+            Long stock = stringRedisTemplate.execute(STOCK_SCRIPT, stockKeys, (Object[]) args);
+            if (stock.intValue() == 0) {
+                order.setBuySeq((int) buySeq).setStockBucket(bucket);
+                return 0;
+            }
+            soldOut.accumulateAndGet(1 << bucket, (a, b) -> a | b);
+        }
+        // 3.所有分桶都卖完了：撤销占位，标记售罄并通知其他节点（只在本节点第一次发现时通知）
+        stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(orderKey(voucherId, home)),
+                userId.toString(), String.valueOf(buySeq));
+        if (!isSoldOut(voucherId)) {
+            markSoldOutLocally(voucherId);
+            soldOutTopic.publish("1:" + voucherId);
+            log.info("优惠券已售罄：{}", voucherId);
+        }
+        return 1;
+    }
+
+    /**
+     * 撤销一次成功的tryAcquire（订单没能放入队列时调用）：撤销用户所属分桶中的占位，并把库存还给扣减它的分桶
+     * 撤销占位与tryAcquire卖完时一样，只有已购数量仍然等于这次的购买序号时才减一
+     */
+    public void release(VoucherOrder order) {
+        Long voucherId = order.getVoucherId();
+        Long userId = order.getUserId();
+        stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(orderKey(voucherId, bucketOf(userId))),
+                userId.toString(), String.valueOf(order.getBuySeq()));
+        stringRedisTemplate.opsForHash().increment(stockKey(voucherId, order.getStockBucket()), "stock", 1);
+        // 库存回到了这个分桶，本节点不能再认为它已经卖完
+        AtomicInteger soldOut = soldOutBuckets.get(voucherId);
+        if (soldOut != null) {
+            soldOut.accumulateAndGet(~(1 << order.getStockBucket()), (a, b) -> a & b);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 商铺id布隆过滤器（本地镜像）
+ * Redis中的可扩容布隆过滤器（多层Redisson布隆过滤器）是唯一的数据源，每个节点在本地堆外内存中为每一层保存一份相同的位图：
+ * 1.启动时每层一次GET把Redis中的位图整体加载到本地
+ * 2.新增商铺时写入Redis布隆过滤器，同时向变更流（Redis Stream）写一条消息，所有节点读取消息后在本地置位（增量同步）
+ *   消息中带有写入的层号，本地还没有这一层（其他节点刚扩容）时整体重新加载
+ * 3.定期重新整体加载一次，兜底消息丢失或Redis中的布隆过滤器被重建
+ * 本地判断使用与Redisson完全相同的哈希算法（HighwayHash + 双重哈希），所以本地结果与直接查询Redis中的各层一致
+ * 判断是否存在不再需要访问Redis；本地镜像还没有加载好时降级为访问Redis
+ */
+@Slf4j
+@Component
+public class ShopBloomFilter implements MembershipFilter<Long> {
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ShopChangeStream shopChangeStream;
+
+    /**
+     * 本地镜像的一层
+     */
+    private static class Layer {
+        private final OffHeapBitSet bits;
+        private final int hashIterations;
+
+        private Layer(OffHeapBitSet bits, int hashIterations) {
+            this.bits = bits;
+            this.hashIterations = hashIterations;
+        }
+    }
+
+    /**
+     * 本地镜像，整体加载时直接替换引用；为null表示还没有加载
+     */
+    private volatile List<Layer> local;
+
+    private ScalableBloomFilter remote;
+
+    /**
+     * 已经应用到本地的最后一条变更消息id
+     */
+    private volatile String lastId = "0-0";
+
+    private volatile boolean running;
+
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-bloom-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    private void init() {
+        remote = new ScalableBloomFilter(redissonClient, SHOP_BLOOM_FILTER);
+    }
+
+    /**
+     * Redis中的可扩容布隆过滤器（各层使用LongCodec：id编码为十进制字符串，本地可以直接按相同的字节计算哈希）
+     */
+    public ScalableBloomFilter getRemote() {
+        return remote;
+    }
+
+    /**
+     * 加载本地镜像并开始增量同步（在Redis布隆过滤器初始化之后调用）
+     */
+    public void start() {
+        // 先记下变更流的当前位置再加载位图，加载期间的新消息之后会被重放（置位是幂等的），不会遗漏
+        lastId = shopChangeStream.latestId();
+        reload();
+        running = true;
+        syncExecutor.submit(this::sync);
+    }
+
+    @PreDestroy
+    private void stop() {
+        running = false;
+        syncExecutor.shutdownNow();
+    }
+
+    /**
+     * 从Redis整体加载所有层的位图
+     */
+    private synchronized void reload() {
+        int count = remote.getLayerCount();
+        List<Layer> layers = new ArrayList<>(count);
+        long bits = 0;
+        for (int i = 0; i < count; i++) {
+            RBloomFilter<Long> filter = remote.getLayer(i);
+            OffHeapBitSet bitSet = new OffHeapBitSet(filter.getSize());
+            bitSet.load(redissonClient.getBitSet(remote.layerName(i)).toByteArray());
+            layers.add(new Layer(bitSet, filter.getHashIterations()));
+            bits += filter.getSize();
+        }
+        local = layers;
+        log.info("商铺布隆过滤器本地镜像加载完成，层数：{}，总位数：{}", count, bits);
+    }
+
+    /**
+     * 读取变更流，把其他节点新增的商铺id应用到本地镜像
+     */
+    private void sync() {
+        long nextReload = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(SHOP_BLOOM_RELOAD_MINUTES);
+        while (running) {
+            try {
+                // XREAD COUNT 100 BLOCK 2000 STREAMS stream.shops lastId
+                List<MapRecord<String, Object, Object>> list = shopChangeStream.read(lastId, 100, Duration.ofSeconds(2));
+                if (list != null) {
+                    for (MapRecord<String, Object, Object> record : list) {
+                        apply(record.getValue());
+                        lastId = record.getId().getValue();
+                    }
+                }
+                if (System.currentTimeMillis() >= nextReload) {
+                    reload();
+                    nextReload = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(SHOP_BLOOM_RELOAD_MINUTES);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("同步商铺布隆过滤器异常", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 应用一条变更消息（布隆过滤器不支持删除，忽略delete消息）
+     */
+    private void apply(Map<Object, Object> change) {
+        if (SHOP_CHANGE_CREATE.equals(change.get("op"))) {
+            setLocal(Long.valueOf(change.get("id").toString()), Integer.parseInt(change.get("layer").toString()));
+        }
+    }
+
+    @Override
+    public boolean contains(Long id) {
+        List<Layer> layers = local;
+        if (layers == null) {
+            // 本地镜像还没有加载好，直接查询Redis
+            return remote.contains(id);
+        }
+        // 任意一层命中即可能存在，从最新（最大）的一层开始判断
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            if (contains(layers.get(i), id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(Layer layer, Long id) {
+        for (long index : ScalableBloomFilter.indexes(id, layer.hashIterations, layer.bits.size())) {
+            if (!layer.bits.get(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增商铺：写入Redis布隆过滤器（数据源），本地立即置位，再通过变更流通知其他节点
+     */
+    @Override
+    public void add(Long id) {
+        int layer = remote.addAndGetLayer(id);
+        setLocal(id, layer);
+        shopChangeStream.publish(SHOP_CHANGE_CREATE, id, Collections.singletonMap("layer", String.valueOf(layer)));
+    }
+
+    private void setLocal(Long id, int layer) {
+        List<Layer> layers = local;
+        if (layers == null) {
+            return;
+        }
+        if (layer >= layers.size()) {
+            // 其他节点刚刚扩容，本地还没有这一层
+            reload();
+            return;
+        }
+        Layer target = layers.get(layer);
+        for (long index : ScalableBloomFilter.indexes(id, target.hashIterations, target.bits.size())) {
+            target.bits.set(index);
+        }
+    }
+}
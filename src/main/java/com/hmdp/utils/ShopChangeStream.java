@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 商铺变更流（Redis Stream），各节点的本地过滤器（布隆过滤器镜像、布谷鸟过滤器）据此增量同步
+ * 消息字段：op（create/delete）、id（商铺id）、node（发出消息的节点）以及各过滤器需要的附加字段
+ * 每个节点都要收到全部消息，所以使用XREAD而不是消费者组
+ */
+@Component
+public class ShopChangeStream {
+
+    /**
+     * 本节点标识，节点可以据此跳过自己发出的、已经在本地应用过的消息
+     */
+    public static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 写入一条消息，只保留最近的一部分消息（近似裁剪，性能更好）
+     */
+    public void publish(String op, Long id, Map<String, String> extra) {
+        Map<String, String> change = new HashMap<>(extra);
+        change.put("op", op);
+        change.put("id", id.toString());
+        change.put("node", NODE_ID);
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(SHOP_CHANGE_STREAM).ofMap(change));
+        stringRedisTemplate.opsForStream().trim(SHOP_CHANGE_STREAM, SHOP_CHANGE_STREAM_MAX_LEN, true);
+    }
+
+    /**
+     * 当前最后一条消息的id，流为空时返回"0-0"
+     * 加载快照之前先记下这个位置，之后从这里开始读取，加载期间的消息不会遗漏
+     */
+    public String latestId() {
+        List<MapRecord<String, Object, Object>> latest = stringRedisTemplate.opsForStream()
+                .reverseRange(SHOP_CHANGE_STREAM, Range.unbounded(), Limit.limit().count(1));
+        return latest == null || latest.isEmpty() ? "0-0" : latest.get(0).getId().getValue();
+    }
+
+    /**
+     * 读取lastId之后的消息
+     *
+     * @param block 没有消息时阻塞等待的时间，为null表示不阻塞
+     */
+    public List<MapRecord<String, Object, Object>> read(String lastId, int count, Duration block) {
+        StreamReadOptions options = StreamReadOptions.empty().count(count);
+        if (block != null) {
+            options = options.block(block);
+        }
+        return stringRedisTemplate.opsForStream().read(options,
+                StreamOffset.create(SHOP_CHANGE_STREAM, ReadOffset.from(lastId)));
+    }
+}
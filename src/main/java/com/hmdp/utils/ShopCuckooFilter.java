@@ -0,0 +1,218 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 商铺id布谷鸟过滤器（支持删除），只保存在每个节点的本地内存中，判断是否存在不访问Redis
+ * 布隆过滤器不能删除元素，已删除的商铺会一直通过过滤器，每次都要查一次Redis，空值过期后还要再查一次数据库；
+ * 布谷鸟过滤器删除商铺时同步移除，已删除商铺的请求在本地直接拦截
+ * 1.启动时从数据库按id范围分批加载所有商铺id
+ * 2.新增、删除商铺都会向商铺变更流写入消息，每个节点的同步线程按顺序把消息应用到本地（所有修改只在同步线程中进行）
+ * 3.布谷鸟过滤器的删除必须与添加一一对应：重复添加会导致删除后依然存在，删除没有添加过的元素可能误删其他元素的指纹
+ *   所以加载时记下变更流的位置和加载到的id集合（快照），重放加载期间的消息时用快照判断消息是否已经体现在加载结果中
+ * 4.定期（或溢出时按更大的容量）从数据库整体重建，兜底消息丢失（变更流只保留最近的消息）
+ * 本地过滤器还没有加载好时不拦截任何id（交给后面的缓存空值法）
+ */
+@Slf4j
+@Component
+public class ShopCuckooFilter implements MembershipFilter<Long> {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private ShopChangeStream shopChangeStream;
+
+    /**
+     * 本地过滤器，重建时直接替换引用；为null表示还没有加载
+     */
+    private volatile CuckooFilter local;
+
+    /**
+     * 本节点新增、还没有从变更流收到create消息的商铺id，避免新商铺在消息到达之前被拦截
+     */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 以下字段只在同步线程中访问
+     * lastId：已经应用的最后一条变更消息id
+     * snapshot：最近一次加载到的id集合，重建后保留一小段时间，用来判断刚加载完时到达的消息是否已经体现在加载结果中
+     */
+    private String lastId = "0-0";
+    private BitSet snapshot;
+    private long snapshotUntil;
+
+    private volatile boolean running;
+
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-cuckoo-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 开始在后台加载并增量同步
+     */
+    public void start() {
+        running = true;
+        syncExecutor.submit(this::sync);
+    }
+
+    @PreDestroy
+    private void stop() {
+        running = false;
+        syncExecutor.shutdownNow();
+    }
+
+    private void sync() {
+        long nextRebuild = 0;
+        while (running) {
+            try {
+                // 1.到了重建时间，或者装载率过高出现了溢出，从数据库整体重建
+                CuckooFilter filter = local;
+                if (System.currentTimeMillis() >= nextRebuild || filter.overflowSize() > 0) {
+                    rebuild();
+                    nextRebuild = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(SHOP_CUCKOO_REBUILD_MINUTES);
+                }
+                // 2.XREAD COUNT 100 BLOCK 2000 STREAMS stream.shops lastId
+                List<MapRecord<String, Object, Object>> list = shopChangeStream.read(lastId, 100, Duration.ofSeconds(2));
+                if (list == null || list.isEmpty()) {
+                    // 已经追上最新的消息，过了保留时间后丢弃快照
+                    if (snapshot != null && System.currentTimeMillis() > snapshotUntil) {
+                        snapshot = null;
+                    }
+                    continue;
+                }
+                for (MapRecord<String, Object, Object> record : list) {
+                    apply(local, record.getValue());
+                    lastId = record.getId().getValue();
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("同步商铺布谷鸟过滤器异常", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 从数据库整体重建
+     */
+    private void rebuild() {
+        // 1.先记下变更流的当前位置，加载期间的消息之后重放
+        String offset = shopChangeStream.latestId();
+        // 2.按id范围分批查询商铺id（where id > lastId order by id limit n），同时记录快照（商铺id自增，用位图保存）
+        long shopCount = shopMapper.selectCount(null);
+        CuckooFilter filter = new CuckooFilter(Math.max(shopCount * SHOP_CUCKOO_HEADROOM, SHOP_BLOOM_MIN_CAPACITY));
+        BitSet loaded = new BitSet();
+        long lastShopId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().select("id").gt("id", lastShopId)
+                    .orderByAsc("id").last("limit " + SHOP_BLOOM_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            for (Shop shop : shops) {
+                filter.add(shop.getId());
+                loaded.set(Math.toIntExact(shop.getId()));
+            }
+            lastShopId = shops.get(shops.size() - 1).getId();
+        }
+        // 3.重放加载期间的消息（不阻塞，读到最新为止）
+        snapshot = loaded;
+        while (true) {
+            List<MapRecord<String, Object, Object>> list = shopChangeStream.read(offset, 1000, null);
+            if (list == null || list.isEmpty()) {
+                break;
+            }
+            for (MapRecord<String, Object, Object> record : list) {
+                apply(filter, record.getValue());
+                offset = record.getId().getValue();
+            }
+        }
+        // 4.替换本地过滤器；快照再保留一段时间：数据库已经修改、消息稍后才写入变更流的商铺依然能被正确判断
+        local = filter;
+        lastId = offset;
+        snapshotUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(SHOP_CUCKOO_SNAPSHOT_GRACE_SECONDS);
+        log.info("商铺布谷鸟过滤器加载完成，商铺数量：{}", filter.count());
+    }
+
+    /**
+     * 应用一条变更消息；有快照时只应用还没有体现在快照中的修改，保证添加与删除一一对应
+     */
+    private void apply(CuckooFilter filter, Map<Object, Object> change) {
+        Object op = change.get("op");
+        Long id = Long.valueOf(change.get("id").toString());
+        int index = Math.toIntExact(id);
+        if (SHOP_CHANGE_CREATE.equals(op)) {
+            if (snapshot == null || !snapshot.get(index)) {
+                filter.add(id);
+                if (snapshot != null) {
+                    snapshot.set(index);
+                }
+            }
+            pending.remove(id);
+        } else if (SHOP_CHANGE_DELETE.equals(op)) {
+            if (snapshot == null || snapshot.get(index)) {
+                filter.remove(id);
+                if (snapshot != null) {
+                    snapshot.clear(index);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(Long id) {
+        CuckooFilter filter = local;
+        if (filter == null) {
+            // 还没有加载好，不拦截
+            return true;
+        }
+        return filter.contains(id) || pending.contains(id);
+    }
+
+    /**
+     * 新增商铺：create消息由ShopBloomFilter.add写入变更流（带有布隆过滤器的层号），这里只记下id，收到消息之前也不会拦截
+     */
+    @Override
+    public void add(Long id) {
+        pending.add(id);
+    }
+
+    /**
+     * 删除商铺：写入delete消息，各节点（包括本节点）的同步线程收到后从本地过滤器中移除
+     */
+    @Override
+    public boolean remove(Long id) {
+        pending.remove(id);
+        shopChangeStream.publish(SHOP_CHANGE_DELETE, id, Collections.emptyMap());
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并（single-flight）
+ * 同一个JVM内，对同一个key的并发加载只有第一个线程（leader）真正执行，其余线程（follower）共享leader的结果
+ * 缓存过期瞬间的大量并发请求，在本节点内只会产生一次数据库查询
+ */
+@SuppressWarnings({"all"})
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+
+    private final CacheStats stats;
+
+    public SingleFlight(CacheStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * 执行加载，同一个key同一时刻只有一个线程在加载
+     *
+     * @param key    合并的key
+     * @param loader 真正的加载逻辑，只由leader执行
+     * @return 加载结果（leader与follower拿到的是同一个对象）
+     */
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            // 已有leader在加载，等待其结果
+            stats.incr("flight.shared");
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                // 还原leader抛出的原始异常
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        stats.incr("flight.leader");
+        try {
+            T result = loader.get();
+            flight.complete(result);
+            return result;
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            // leader已经把结果写入缓存，之后到达的请求直接命中缓存，不再需要合并
+            flights.remove(key, flight);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 雪花算法ID生成器：生成ID只在本地计算，不访问Redis
+ * ID = 时间戳(31位，秒，与RedisIdWorker相同) | 1(标记位) | workerId(9位) | 序列号(22位，每个节点每秒最多约419万个)
+ * 1.标记位固定为1：RedisIdWorker按天计数的序列号不会达到2^31，两种方式生成的ID不会重复，可以随时切换
+ * 2.workerId在启动时从Redis租用（id:worker:{n}，SET NX + 过期时间），定时续期，停止时释放；
+ *   续期失败（租约已过期，可能被其他节点接管）时立即停止使用这个workerId，重新租用一个
+ * 3.时钟回拨：继续使用上次的时间戳，在它后面递增序列号（序列号用完时借用下一秒），
+ *   回拨超过ID_MAX_CLOCK_BACKWARD秒时拒绝生成ID；续期时把最后使用的时间戳写入Redis，
+ *   下一个租用这个workerId的节点（包括重启后的本节点）从这个时间戳之后开始
+ */
+@Slf4j
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    private static final long BEGIN_TIMESTAMP = 1640995200L;//2022.1.1 00：00：00
+    private static final int COUNT_BITS = 32;
+    private static final int WORKER_BITS = 9;
+    private static final int SEQUENCE_BITS = 22;
+    private static final long MAX_WORKER = 1L << WORKER_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long SNOWFLAKE_FLAG = 1L << (COUNT_BITS - 1);
+
+    private static final DefaultRedisScript<Long> WORKER_SCRIPT;
+    static {
+        WORKER_SCRIPT = new DefaultRedisScript<>();
+        WORKER_SCRIPT.setLocation(new ClassPathResource("id_worker.lua"));
+        WORKER_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 租约的持有者：进程名（pid@host）
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName();
+
+    /**
+     * 当前的workerId，-1表示没有租到
+     */
+    private volatile long workerId = -1;
+
+    // 租约到期时间（毫秒），Redis不可用、无法续期时最多使用到这个时间
+    private volatile long leaseUntil;
+
+    /**
+     * 上次生成ID的 时间戳 << SEQUENCE_BITS | 序列号，用一次CAS同时更新两者
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    // 本地时区与UTC的偏移（秒），时间戳按本地时间计算，与RedisIdWorker保持一致；续期时刷新
+    private volatile long offsetSeconds = currentOffset();
+
+    private final ScheduledExecutorService renewExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker-renew");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 使用固定的workerId，不从Redis租用（单节点或测试）
+     */
+    public SnowflakeIdGenerator(long workerId) {
+        if (workerId < 0 || workerId >= MAX_WORKER) {
+            throw new IllegalArgumentException("workerId超出范围：" + workerId);
+        }
+        this.stringRedisTemplate = null;
+        this.workerId = workerId;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (stringRedisTemplate == null) {
+            return;
+        }
+        if (!acquireWorker()) {
+            throw new IllegalStateException("没有可用的workerId，所有" + MAX_WORKER + "个workerId都已被占用");
+        }
+        long period = Math.max(ID_WORKER_TTL / 3, 1);
+        renewExecutor.scheduleWithFixedDelay(this::renewWorker, period, period, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        renewExecutor.shutdownNow();
+        long id = workerId;
+        if (stringRedisTemplate == null || id < 0) {
+            return;
+        }
+        workerId = -1;
+        try {
+            execute(id, "release");
+        } catch (Exception e) {
+            log.warn("释放workerId失败：{}", id, e);
+        }
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        long worker = workerId;
+        if (worker < 0) {
+            throw new IllegalStateException("没有可用的workerId，暂时不能生成ID");
+        }
+        long now = System.currentTimeMillis() / 1000 + offsetSeconds - BEGIN_TIMESTAMP;
+        while (true) {
+            long current = state.get();
+            long last = current >>> SEQUENCE_BITS;
+            long next;
+            if (now > last) {
+                // 1.进入新的一秒，序列号从0开始
+                next = now << SEQUENCE_BITS;
+            } else {
+                // 2.同一秒，或者时钟回拨：沿用上次的时间戳递增序列号，用完时借用下一秒
+                if (last - now > ID_MAX_CLOCK_BACKWARD) {
+                    throw new IllegalStateException("时钟回拨" + (last - now) + "秒，暂时不能生成ID");
+                }
+                next = (current & SEQUENCE_MASK) == SEQUENCE_MASK ? (last + 1) << SEQUENCE_BITS : current + 1;
+            }
+            if (state.compareAndSet(current, next)) {
+                // 3.拼接：时间戳 | 标记位 | workerId | 序列号
+                return (next >>> SEQUENCE_BITS) << COUNT_BITS | SNOWFLAKE_FLAG
+                        | worker << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试租用workerId，减少多个节点同时启动时的冲突
+     */
+    private boolean acquireWorker() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER);
+        for (long i = 0; i < MAX_WORKER; i++) {
+            long id = (start + i) % MAX_WORKER;
+            long last = execute(id, "acquire");
+            if (last < 0) {
+                continue;
+            }
+            // 从上一个持有者最后使用的时间戳之后开始
+            long seed = (last + 1) << SEQUENCE_BITS;
+            state.accumulateAndGet(seed, Math::max);
+            leaseUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ID_WORKER_TTL);
+            workerId = id;
+            log.info("租用workerId：{}", id);
+            return true;
+        }
+        return false;
+    }
+
+    private void renewWorker() {
+        try {
+            offsetSeconds = currentOffset();
+            long id = workerId;
+            long renewAt = System.currentTimeMillis();
+            if (id >= 0 && execute(id, "renew") == 0) {
+                leaseUntil = renewAt + TimeUnit.SECONDS.toMillis(ID_WORKER_TTL);
+                return;
+            }
+            // 租约已经丢失：先停止使用旧的workerId，再重新租用
+            workerId = -1;
+            log.error("workerId租约丢失：{}，重新租用", id);
+            if (!acquireWorker()) {
+                log.error("没有可用的workerId");
+            }
+        } catch (Exception e) {
+            // Redis暂时不可用时继续使用当前workerId，租约在有效期内仍然属于本节点；过期后停止生成ID
+            log.error("续期workerId失败", e);
+            if (System.currentTimeMillis() >= leaseUntil) {
+                workerId = -1;
+            }
+        }
+    }
+
+    private long execute(long id, String op) {
+        List<String> keys = Arrays.asList(ID_WORKER_KEY + "{" + id + "}", ID_WORKER_KEY + "{" + id + "}:last");
+        Long result = stringRedisTemplate.execute(WORKER_SCRIPT, keys, op, owner,
+                String.valueOf(ID_WORKER_TTL), String.valueOf(state.get() >>> SEQUENCE_BITS));
+        return result == null ? -1 : result;
+    }
+
+    private static long currentOffset() {
+        return ZoneId.systemDefault().getRules().getOffset(Instant.now()).getTotalSeconds();
+    }
+}
@@ -0,0 +1,2 @@
+-- Feed流推送任务按粉丝分页：where follow_user_id = ? and id > ? order by id limit n
+ALTER TABLE `tb_follow` ADD INDEX `idx_follow_user_id` (`follow_user_id`, `id`);
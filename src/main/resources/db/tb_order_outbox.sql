@@ -0,0 +1,15 @@
+-- 订单发件箱：hmdp.seckill.queue = outbox 时的订单队列
+-- 下单时写入一行，消费者在创建订单的同一个事务中删除这一行；处理失败的行按退避时间推迟，达到最大投递次数后status = 2（死信）
+-- 消费者使用 SELECT ... FOR UPDATE SKIP LOCKED 领取订单，需要MySQL 8.0
+CREATE TABLE IF NOT EXISTS `tb_order_outbox`
+(
+    `id`              bigint(20)  NOT NULL COMMENT '订单id',
+    `user_id`         bigint(20)  NOT NULL COMMENT '下单的用户id',
+    `voucher_id`      bigint(20)  NOT NULL COMMENT '购买的代金券id',
+    `status`          tinyint(1)  NOT NULL DEFAULT 0 COMMENT '0：待处理；2：死信',
+    `attempts`        int(11)     NOT NULL DEFAULT 0 COMMENT '处理失败的次数',
+    `next_attempt_at` datetime(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) COMMENT '下一次可以处理的时间',
+    `create_time`     timestamp   NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    PRIMARY KEY (`id`),
+    KEY `idx_status_next_attempt` (`status`, `next_attempt_at`, `id`)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
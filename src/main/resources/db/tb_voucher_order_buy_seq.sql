@@ -0,0 +1,13 @@
+-- 每人限购N张：秒杀券增加每人限购数量；订单增加购买序号，唯一约束改为(user_id, voucher_id, buy_seq)
+-- 一人一单的唯一约束见 tb_voucher_order_unique.sql，本脚本在其之后执行
+ALTER TABLE `tb_seckill_voucher`
+    ADD COLUMN `per_user_limit` int(11) NOT NULL DEFAULT 1 COMMENT '每人限购数量' AFTER `stock`;
+
+ALTER TABLE `tb_voucher_order`
+    ADD COLUMN `buy_seq` int(11) NOT NULL DEFAULT 1 COMMENT '同一用户购买同一张代金券的序号，从1开始' AFTER `voucher_id`,
+    DROP INDEX `uk_user_voucher`,
+    ADD UNIQUE KEY `uk_user_voucher_seq` (`user_id`, `voucher_id`, `buy_seq`);
+
+-- 订单发件箱（hmdp.seckill.queue = outbox，见 tb_order_outbox.sql）同样保存购买序号
+ALTER TABLE `tb_order_outbox`
+    ADD COLUMN `buy_seq` int(11) NOT NULL DEFAULT 1 COMMENT '购买序号' AFTER `voucher_id`;
@@ -0,0 +1,4 @@
+-- 一人一单：订单表增加唯一约束(user_id, voucher_id)，订单写入使用INSERT IGNORE，重复的订单直接被忽略
+-- 执行前需要先清理已经存在的重复订单
+ALTER TABLE `tb_voucher_order`
+    ADD UNIQUE KEY `uk_user_voucher` (`user_id`, `voucher_id`);
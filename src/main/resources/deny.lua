@@ -0,0 +1,24 @@
+-- 区间拒绝表：Hash结构，field为块号（id / 32），value为块内32个id的位图（十进制整数），第i位为1表示 块号*32+i 确认不存在
+-- KEYS[1] 拒绝表key
+-- ARGV[1] 操作：1置位，0清除
+-- ARGV[2] 有效期（秒），置位时刷新
+-- ARGV[3..] 块号、块内位序号交替出现
+local set = ARGV[1] == '1'
+for i = 3, #ARGV, 2 do
+    local mask = tonumber(redis.call('hget', KEYS[1], ARGV[i]) or '0')
+    local b = bit.lshift(1, tonumber(ARGV[i + 1]))
+    if set then
+        mask = bit.bor(mask, b)
+    else
+        mask = bit.band(mask, bit.bnot(b))
+    end
+    if mask == 0 then
+        redis.call('hdel', KEYS[1], ARGV[i])
+    else
+        redis.call('hset', KEYS[1], ARGV[i], tostring(mask))
+    end
+end
+if set then
+    redis.call('expire', KEYS[1], ARGV[2])
+end
+return 1
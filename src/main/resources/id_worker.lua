@@ -0,0 +1,24 @@
+-- 雪花ID生成器的workerId租约
+-- KEYS[1]：租约 id:worker:{n}（值为持有者，带过期时间）；KEYS[2]：id:worker:{n}:last，持有者最后使用的时间戳（秒）
+-- ARGV[1]：操作 acquire / renew / release；ARGV[2]：持有者；ARGV[3]：租约有效期（秒）；ARGV[4]：最后使用的时间戳
+local owner = redis.call('get', KEYS[1])
+if ARGV[1] == 'acquire' then
+    -- 被其他节点持有
+    if owner and owner ~= ARGV[2] then
+        return -1
+    end
+    redis.call('set', KEYS[1], ARGV[2], 'EX', ARGV[3])
+    -- 返回上一个持有者最后使用的时间戳，新的持有者从它之后开始，避免时钟较慢的节点生成重复的ID
+    return tonumber(redis.call('get', KEYS[2]) or '0')
+end
+if owner ~= ARGV[2] then
+    -- 租约已经过期或者被其他节点接管
+    return -1
+end
+if ARGV[1] == 'release' then
+    redis.call('del', KEYS[1])
+else
+    redis.call('expire', KEYS[1], ARGV[3])
+end
+redis.call('set', KEYS[2], ARGV[4], 'EX', 86400)
+return 0
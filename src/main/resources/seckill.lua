@@ -1,36 +1,54 @@
+-- 秒杀：在用户所属的库存分桶中判断秒杀时间、每人限购并扣库存，整个资格判断在一次脚本调用中完成
+-- 库存拆分为多个分桶（seckill:stock:{voucherId:i}，hash：stock 本分桶库存，begin/end 秒杀开始/结束时间（毫秒），limit 每人限购数量），
+-- 每人已购数量按同样的方式拆分（seckill:order:{voucherId:i}，hash：用户id -> 已购数量），
+-- 用户固定属于第 userId % 分桶数 个分桶，同一个用户的已购数量总在同一个分桶中；分桶号放在{}中，集群模式下同一分桶的两个key在同一个槽
+-- 订单队列是Redis Stream时，Stream作为KEYS[3]传入并在脚本中XADD；Stream与分桶不在同一个槽，所以这种情况只支持单节点Redis，
+-- 集群模式下需要使用memory或outbox订单队列（不传KEYS[3]，脚本只访问分桶所在槽中的key）
+-- 返回 {结果, 购买序号}，结果：0 成功；1 库存不足；2 超过每人限购数量；3 本分桶已经卖完（已占位）；4 秒杀尚未开始；5 秒杀已经结束
+-- 使用Redis服务器时间判断秒杀时间，各节点的时钟偏差不影响判断（脚本按命令复制，读取时间之后可以写入）
+redis.replicate_commands()
 -- 1.参数列表
--- 1.1优惠券的ID
+-- 1.1库存key（分桶）
+local stockKey = KEYS[1]
+-- 1.2已购数量key（与库存同一个分桶）
+local orderKey = KEYS[2]
+-- 1.3Stream消息队列（不传表示订单队列不是Redis Stream，由调用方在脚本返回后写入队列）
+local queueName = KEYS[3]
+-- 1.4优惠券的ID
 local voucherId = ARGV[1]
--- 1.2用户ID
+-- 1.5用户ID
 local userId = ARGV[2]
--- 1.3订单ID
+-- 1.6订单ID
 local orderId = ARGV[3]
--- 1.4Stream消息队列名称
-local queueName = ARGV[4]
---2.数据key
--- 2.1库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2订单key
-local orderKey = 'seckill:order:' .. voucherId
 
--- 3.脚本业务
--- 3.1判断库存是否充足
-local stock = redis.call('get',stockKey)
-local stockNumber = tonumber(stock)
-if stockNumber <= 0 then
---     3.2库存不足，返回1
-    return 1
+-- 2.脚本业务
+local meta = redis.call('hmget', stockKey, 'stock', 'begin', 'end', 'limit')
+-- 2.1判断秒杀时间（没有预加载的分桶不判断，按库存为0处理）
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if meta[2] and now < tonumber(meta[2]) then
+    return {4, 0}
 end
-
--- 3.2判断用户是否下单
-if redis.call('sismember',orderKey,userId) == 1 then
---     3.3存在，说明是重复下单，返回2
-    return 2
+if meta[3] and now > tonumber(meta[3]) then
+    return {5, 0}
+end
+-- 2.2判断用户已购数量是否达到每人限购数量
+local limit = tonumber(meta[4] or '1')
+if tonumber(redis.call('hget', orderKey, userId) or '0') >= limit then
+--     达到限购数量，返回2
+    return {2, 0}
+end
+-- 2.3占位：已购数量加一，加一之后的值就是这次的购买序号（防止同一用户并发地超过限购数量）
+local buySeq = redis.call('hincrby', orderKey, userId, 1)
+-- 2.4判断本分桶库存是否充足
+if tonumber(meta[1] or '0') <= 0 then
+--     本分桶已经卖完：保留占位，返回3，由调用方去其他分桶扣库存
+    return {3, buySeq}
+end
+-- 2.5扣库存
+redis.call('hincrby', stockKey, 'stock', -1)
+-- 2.6发送消息到队列中 XADD stream.orders * k1 v1 k2 v2(为什么是id？  因为与voucherOrder中的属性名保持一致，方便创建订单)
+if queueName then
+    redis.call('xadd', queueName, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId, 'buySeq', buySeq)
 end
--- 3.4扣库存
-redis.call('incrby',stockKey,-1)
--- 3.5下单（保存用户）
-redis.call('sadd',orderKey,userId)
--- 3.6发送消息到队列中 XADD stream.orders * k1 v1 k2 v2(为什么是id？  因为与voucherOrder中的属性名保持一致，方便创建订单)
-redis.call('xadd',queueName,'*','userId',userId,'voucherId',voucherId,'id',orderId)
-return 0
\ No newline at end of file
+return {0, buySeq}
@@ -0,0 +1,70 @@
+-- 秒杀准入：每张优惠券一个令牌桶 + 排队等候室
+-- 令牌按固定速率生成，桶容量为burst；等候室中有人排队时，新生成的令牌先用来放行排队的凭证（按凭证号先后），新请求不能插队
+-- 1.参数列表
+-- 1.1令牌桶与等候室状态（hash）：tokens 当前令牌数，ts 上次计算的时间，issued 已发放的最大凭证号，admitted 已放行的最大凭证号
+local stateKey = KEYS[1]
+-- 1.2排队凭证（hash）：t:凭证号 -> 用户id，u:用户id -> 凭证号；与stateKey使用相同的{优惠券id}，集群模式下在同一个槽
+local ticketKey = KEYS[2]
+-- 1.3操作：acquire 领取令牌（领不到则发放凭证）；poll 查询凭证是否已经放行
+local op = ARGV[1]
+-- 1.4每秒生成的令牌数、桶容量、当前时间（毫秒）、key的有效期（秒）
+local rate = tonumber(ARGV[2])
+local burst = tonumber(ARGV[3])
+local now = tonumber(ARGV[4])
+local ttl = tonumber(ARGV[5])
+-- 1.5acquire：最多领取的令牌数（节点把多领的令牌留在本地使用）；poll：凭证号
+local arg = tonumber(ARGV[6])
+-- 1.6用户id
+local userId = ARGV[7]
+
+-- 2.补充令牌（各节点的时钟可能有偏差，时间倒退时不补充）
+local state = redis.call('hmget', stateKey, 'tokens', 'ts', 'issued', 'admitted')
+local tokens = tonumber(state[1]) or burst
+local ts = tonumber(state[2]) or now
+local issued = tonumber(state[3]) or 0
+local admitted = tonumber(state[4]) or 0
+if now > ts then
+    tokens = math.min(burst, tokens + (now - ts) * rate / 1000)
+    ts = now
+end
+
+-- 3.等候室优先：用令牌按顺序放行排队的凭证
+local waiting = issued - admitted
+if waiting > 0 and tokens >= 1 then
+    local grant = math.min(math.floor(tokens), waiting)
+    admitted = admitted + grant
+    tokens = tokens - grant
+end
+
+local result
+if op == 'acquire' then
+    -- 4.领取令牌：返回领到的令牌数（>0）；领不到时返回 -凭证号
+    local existing = redis.call('hget', ticketKey, 'u:' .. userId)
+    if existing then
+        -- 用户已经在排队，返回原来的凭证
+        result = -tonumber(existing)
+    elseif issued == admitted and tokens >= 1 then
+        local grant = math.min(math.floor(tokens), arg)
+        tokens = tokens - grant
+        result = grant
+    else
+        issued = issued + 1
+        redis.call('hset', ticketKey, 't:' .. issued, userId, 'u:' .. userId, issued)
+        result = -issued
+    end
+else
+    -- 5.查询凭证：0 已放行（凭证作废，只能使用一次）；>0 前面还有多少个凭证；-1 凭证无效（不存在、已使用或者不属于该用户）
+    if redis.call('hget', ticketKey, 't:' .. arg) ~= userId then
+        result = -1
+    elseif arg <= admitted then
+        redis.call('hdel', ticketKey, 't:' .. arg, 'u:' .. userId)
+        result = 0
+    else
+        result = arg - admitted
+    end
+end
+
+redis.call('hset', stateKey, 'tokens', tostring(tokens), 'ts', ts, 'issued', issued, 'admitted', admitted)
+redis.call('expire', stateKey, ttl)
+redis.call('expire', ticketKey, ttl)
+return result
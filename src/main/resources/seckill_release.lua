@@ -0,0 +1,6 @@
+-- 秒杀：所有分桶都卖完时撤销占位
+-- 只有已购数量仍然等于这次的购买序号时才减一：同一用户的并发请求之后又占了位时不撤销，避免之后的购买序号与已经成功的订单重复
+if redis.call('hget', KEYS[1], ARGV[1]) == ARGV[2] then
+    return redis.call('hincrby', KEYS[1], ARGV[1], -1)
+end
+return -1
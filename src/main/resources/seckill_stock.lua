@@ -0,0 +1,23 @@
+-- 秒杀：用户所属的分桶已经卖完时，从其他分桶扣库存（秒杀时间、每人限购已经在用户所属的分桶中判断并占位）
+-- 1.参数列表
+-- 1.1库存key（分桶）
+local stockKey = KEYS[1]
+-- 1.2Stream消息队列（不传表示由调用方写入队列；传入时只支持单节点Redis，见seckill.lua）
+local queueName = KEYS[2]
+-- 1.3优惠券的ID、用户ID、订单ID、购买序号
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+local buySeq = ARGV[4]
+
+-- 2.判断本分桶库存是否充足，不足返回1
+local stockNumber = tonumber(redis.call('hget', stockKey, 'stock') or '0')
+if stockNumber <= 0 then
+    return 1
+end
+-- 3.扣库存，发送消息到队列中（没有传入队列时由调用方写入队列）
+redis.call('hincrby', stockKey, 'stock', -1)
+if queueName then
+    redis.call('xadd', queueName, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId, 'buySeq', buySeq)
+end
+return 0
@@ -4,10 +4,10 @@ import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.BloomFilterDemo;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ScalableBloomFilter;
+import com.hmdp.utils.ShopBloomFilter;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
-import org.redisson.api.RBloomFilter;
-import org.redisson.api.RedissonClient;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
@@ -15,13 +15,14 @@ import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.SHOP_TTL;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Slf4j
 @SpringBootTest
 public class BloomFilterTests {
 
     @Resource
-    private RedissonClient redissonClient;
+    private ShopBloomFilter shopBloomFilter;
 
     @Resource
     private IShopService shopService;
@@ -38,13 +39,17 @@ public class BloomFilterTests {
      */
     @Test
     void testBloomFilter() {
-        // 获取布隆过滤器
-        RBloomFilter<Long> bloomFilter = redissonClient.getBloomFilter("shop:bloom:filter");
+        // 获取布隆过滤器：Redis中的分层布隆过滤器（启动时由BloomFilterDemo加载）及其本地镜像
+        ScalableBloomFilter remoteFilter = shopBloomFilter.getRemote();
+        log.info("布隆过滤器层数: {}", remoteFilter.getLayerCount());
         
         // 测试存在的ID (假设ID为1的商铺存在)
         Long existingId = 1L;
-        boolean existsInBloom = bloomFilter.contains(existingId);
+        boolean existsInBloom = shopBloomFilter.contains(existingId);
         log.info("ID {} 在布隆过滤器中: {}", existingId, existsInBloom);
+        // 布隆过滤器不会漏判，本地镜像与Redis中的过滤器都必须包含已存在的商铺
+        assertTrue(existsInBloom);
+        assertTrue(remoteFilter.contains(existingId));
         
         // 使用布隆过滤器方法查询存在的商铺
         Shop existingShop = cacheClient.handCachePenetrationByBloomFilter(
@@ -52,7 +57,7 @@ public class BloomFilterTests {
                 existingId,
                 Shop.class,
                 shopService::getById,
-                bloomFilter,
+                shopBloomFilter,
                 SHOP_TTL,
                 TimeUnit.MINUTES
         );
@@ -60,7 +65,7 @@ public class BloomFilterTests {
         
         // 测试不存在的ID (假设ID为-1的商铺不存在)
         Long nonExistingId = -1L;
-        boolean nonExistsInBloom = bloomFilter.contains(nonExistingId);
+        boolean nonExistsInBloom = shopBloomFilter.contains(nonExistingId);
         log.info("ID {} 在布隆过滤器中: {}", nonExistingId, nonExistsInBloom);
         
         // 使用布隆过滤器方法查询不存在的商铺
@@ -69,7 +74,7 @@ public class BloomFilterTests {
                 nonExistingId,
                 Shop.class,
                 shopService::getById,
-                bloomFilter,
+                shopBloomFilter,
                 SHOP_TTL,
                 TimeUnit.MINUTES
         );
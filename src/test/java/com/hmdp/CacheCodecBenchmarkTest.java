@@ -0,0 +1,184 @@
+package com.hmdp;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存编解码器对比测试：JSON vs 二进制（含LZ4压缩）
+ * 比较序列化后的字节数、编解码耗时以及每次编解码分配的内存（GC压力）
+ * 不依赖Redis和数据库，可以直接运行
+ */
+@Slf4j
+public class CacheCodecBenchmarkTest {
+
+    // 预热次数与正式测量次数
+    private static final int WARMUP = 10000;
+    private static final int ITERATIONS = 50000;
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+    private final CacheCodec binaryCodec = new BinaryCacheCodec(512);
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2022, 1, 1, 10, 30, 0);
+
+    private Shop shop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L)
+                .setSold(4215).setComments(3035).setScore(37)
+                .setOpenHours("10:00-22:00").setCreateTime(TIME).setUpdateTime(TIME);
+    }
+
+    private Blog blog() {
+        return new Blog().setId(4L).setShopId(4L).setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent(StrUtil.repeat("生活就是一半烟火·一半诗意<br>手执烟火谋生活·心怀诗意以谋爱·<br>当然<br>男朋友给不了的浪漫要学会自己给🍒<br>", 8))
+                .setLiked(25).setComments(104).setCreateTime(TIME).setUpdateTime(TIME);
+    }
+
+    private UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_slxaxy2au9");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        return user;
+    }
+
+    private Voucher voucher() {
+        return new Voucher().setId(10L).setShopId(1L).setTitle("100元代金券").setSubTitle("周一至周五均可使用")
+                .setRules("全场通用\\n无需预约\\n可无限叠加\\n不兑现、不找零\\n仅限堂食")
+                .setPayValue(8000L).setActualValue(10000L).setType(1).setStatus(1).setStock(100)
+                .setBeginTime(TIME).setEndTime(TIME.plusDays(1)).setPerUserLimit(2).setCreateTime(TIME).setUpdateTime(TIME);
+    }
+
+    /**
+     * 各实体编码后解码，结果与原对象一致
+     */
+    @Test
+    void testRoundTrip() {
+        for (Object value : new Object[]{shop(), blog(), user(), voucher()}) {
+            byte[] bytes = binaryCodec.encode(value);
+            assertEquals(value, binaryCodec.decode(bytes, value.getClass()).getData());
+
+            RedisData redisData = new RedisData();
+            redisData.setData(value);
+            redisData.setExpireTime(TIME.plusSeconds(20));
+            RedisData decoded = binaryCodec.decode(binaryCodec.encodeLogical(redisData), value.getClass());
+            assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+            assertNull(decoded.getRebuildCost());
+            assertEquals(value, decoded.getData());
+
+            // 带重建耗时的逻辑过期数据
+            redisData.setRebuildCost(37L);
+            decoded = binaryCodec.decode(binaryCodec.encodeLogical(redisData), value.getClass());
+            assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+            assertEquals(37L, decoded.getRebuildCost());
+            assertEquals(value, decoded.getData());
+        }
+    }
+
+    /**
+     * 二进制编解码器可以读取升级之前写入的JSON数据（普通数据和逻辑过期数据）
+     */
+    @Test
+    void testReadLegacyJson() {
+        Shop shop = shop();
+        RedisData plain = binaryCodec.decode(jsonCodec.encode(shop), Shop.class);
+        assertNull(plain.getExpireTime());
+        assertEquals(shop, plain.getData());
+
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(TIME);
+        RedisData logical = binaryCodec.decode(jsonCodec.encodeLogical(redisData), Shop.class);
+        assertEquals(TIME, logical.getExpireTime());
+        assertEquals(shop, logical.getData());
+    }
+
+    /**
+     * 首字节与旧格式字节相同的JSON仍交给JSON解析；截断、损坏的数据按未命中处理，不抛异常
+     */
+    @Test
+    void testCorruptDataIsMiss() {
+        // 以'"'、'1'、'2'、'3'开头的旧数据不是合法的JSON对象，按未命中处理
+        for (String legacy : new String[]{"\"103茶餐厅\"", "1", "2", "3"}) {
+            assertNull(binaryCodec.decode(legacy.getBytes(StandardCharsets.UTF_8), Shop.class));
+        }
+        // 截断的数据
+        byte[] bytes = binaryCodec.encode(shop());
+        for (int length = 1; length < bytes.length; length++) {
+            assertNull(binaryCodec.decode(Arrays.copyOf(bytes, length), Shop.class));
+        }
+        // 压缩数据被截断或损坏
+        byte[] compressed = binaryCodec.encode(blog());
+        assertNull(binaryCodec.decode(Arrays.copyOf(compressed, compressed.length - 1), Blog.class));
+        byte[] corrupt = compressed.clone();
+        for (int i = 5; i < corrupt.length; i++) {
+            corrupt[i] = (byte) 0xFF;
+        }
+        assertNull(binaryCodec.decode(corrupt, Blog.class));
+        // 头部记录的原始长度被篡改为超大值：不能按它分配内存
+        byte[] huge = compressed.clone();
+        huge[3] = (byte) 0xFF;
+        huge[4] = (byte) 0xFF;
+        huge[5] = (byte) 0xFF;
+        huge[6] = (byte) 0x7F;
+        assertNull(binaryCodec.decode(huge, Blog.class));
+    }
+
+    /**
+     * 比较字节数与编解码性能
+     */
+    @Test
+    void testCompareSizeAndSpeed() {
+        for (Object value : new Object[]{shop(), blog(), user(), voucher()}) {
+            int jsonSize = jsonCodec.encode(value).length;
+            int binarySize = binaryCodec.encode(value).length;
+            log.info("{} 字节数: JSON={} 二进制={} 节省={}%", value.getClass().getSimpleName(),
+                    jsonSize, binarySize, 100 - binarySize * 100 / jsonSize);
+            assertTrue(binarySize < jsonSize);
+        }
+        // Blog正文较长，超过压缩阈值，验证LZ4确实生效
+        assertTrue(binaryCodec.encode(blog()).length < new BinaryCacheCodec(Integer.MAX_VALUE).encode(blog()).length);
+
+        for (Object value : new Object[]{shop(), blog()}) {
+            measure("JSON", jsonCodec, value);
+            measure("二进制", binaryCodec, value);
+        }
+    }
+
+    private void measure(String name, CacheCodec codec, Object value) {
+        Class<?> type = value.getClass();
+        for (int i = 0; i < WARMUP; i++) {
+            codec.decode(codec.encode(value), type);
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(codec.encode(value), type);
+        }
+        long cost = System.nanoTime() - begin;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        log.info("{} {} 编码+解码: {} ns/op, 分配内存: {} B/op", name, type.getSimpleName(),
+                cost / ITERATIONS, allocated / ITERATIONS);
+    }
+}
@@ -0,0 +1,56 @@
+package com.hmdp;
+
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.CacheStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存重建线程池：按key去重与队列满时拒绝
+ */
+public class CacheRebuildExecutorTest {
+
+    @Test
+    void testDedupAndReject() throws InterruptedException {
+        CacheStats stats = new CacheStats();
+        CacheRebuildExecutor executor = new CacheRebuildExecutor(1, 1, stats);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+        // 1个线程执行 + 1个排队
+        assertTrue(executor.submit("shop:1", blocking));
+        assertTrue(executor.submit("shop:2", blocking));
+        // 相同key去重
+        assertFalse(executor.submit("shop:1", blocking));
+        // 队列已满，拒绝
+        assertFalse(executor.submit("shop:3", blocking));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        Map<String, Long> snapshot = stats.snapshot();
+        assertEquals(2L, snapshot.get("rebuild.submitted"));
+        assertEquals(1L, snapshot.get("rebuild.deduped"));
+        assertEquals(1L, snapshot.get("rebuild.rejected"));
+        // 任务结束后可以再次提交同一个key
+        Thread.sleep(100);
+        assertTrue(executor.submit("shop:1", () -> { }));
+        Map<String, Long> gauges = new HashMap<>();
+        executor.gauges(gauges);
+        assertTrue(gauges.containsKey("rebuild.queue"));
+        executor.shutdown();
+    }
+}
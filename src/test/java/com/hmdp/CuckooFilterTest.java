@@ -0,0 +1,62 @@
+package com.hmdp;
+
+import com.hmdp.utils.CuckooFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 布谷鸟过滤器：添加的元素一定存在，删除后不再存在，误判率在预期范围内
+ */
+@Slf4j
+public class CuckooFilterTest {
+
+    @Test
+    void testAddAndRemove() {
+        int n = 100000;
+        CuckooFilter filter = new CuckooFilter(n);
+        for (long i = 1; i <= n; i++) {
+            filter.add(i);
+        }
+        for (long i = 1; i <= n; i++) {
+            assertTrue(filter.contains(i));
+        }
+        // 删除一半，剩下的一半依然存在
+        for (long i = 1; i <= n; i += 2) {
+            assertTrue(filter.remove(i));
+        }
+        for (long i = 2; i <= n; i += 2) {
+            assertTrue(filter.contains(i));
+        }
+        assertEquals(n / 2, filter.count());
+
+        // 删除的元素和从未添加的元素：16位指纹、每桶4槽，误判率约为 8 / 65536
+        int falsePositives = 0;
+        for (long i = 1; i <= n; i += 2) {
+            if (filter.contains(i)) {
+                falsePositives++;
+            }
+        }
+        for (long i = n + 1; i <= 2L * n; i++) {
+            if (filter.contains(i)) {
+                falsePositives++;
+            }
+        }
+        log.info("误判数量：{} / {}", falsePositives, n + n / 2);
+        assertTrue(falsePositives < (n + n / 2) * 0.001);
+    }
+
+    @Test
+    void testOverflow() {
+        // 超出容量时放不下的指纹进入溢出集合，依然不会漏判
+        CuckooFilter filter = new CuckooFilter(1000);
+        for (long i = 1; i <= 3000; i++) {
+            filter.add(i);
+        }
+        assertTrue(filter.overflowSize() > 0);
+        for (long i = 1; i <= 3000; i++) {
+            assertTrue(filter.contains(i));
+        }
+    }
+}
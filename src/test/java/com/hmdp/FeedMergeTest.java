@@ -0,0 +1,82 @@
+package com.hmdp;
+
+import com.hmdp.utils.FeedMerge;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Feed流多路归并测试：收件箱与多个大V发件箱合并后的滚动分页，与把所有数据放在一个收件箱中分页的结果相同
+ * 不依赖Redis和数据库，可以直接运行
+ */
+public class FeedMergeTest {
+
+    /**
+     * 模拟 ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 limit
+     */
+    private static Set<ZSetOperations.TypedTuple<String>> range(List<long[]> source, long max, int limit) {
+        TreeSet<long[]> sorted = new TreeSet<>((a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1])
+                : String.valueOf(b[0]).compareTo(String.valueOf(a[0])));
+        sorted.addAll(source);
+        return sorted.stream().filter(e -> e[1] <= max).limit(limit)
+                .map(e -> new DefaultTypedTuple<>(String.valueOf(e[0]), (double) e[1]))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * 用滚动分页读完所有数据，返回读到的笔记id
+     */
+    private static List<String> scrollAll(List<List<long[]>> sources, int count) {
+        List<String> result = new ArrayList<>();
+        long max = Long.MAX_VALUE / 2;
+        int offset = 0;
+        while (true) {
+            List<Set<ZSetOperations.TypedTuple<String>>> ranges = new ArrayList<>();
+            for (List<long[]> source : sources) {
+                ranges.add(range(source, max, offset + count));
+            }
+            FeedMerge.Page page = FeedMerge.merge(ranges, max, offset, count);
+            if (page.getItems().isEmpty()) {
+                return result;
+            }
+            page.getItems().forEach(t -> result.add(t.getValue()));
+            max = page.getMinTime();
+            offset = page.getOffset();
+        }
+    }
+
+    @Test
+    void mergeMatchesSingleInbox() {
+        // 收件箱与两个发件箱，时间戳有大量重复（同一毫秒发布的笔记）
+        List<long[]> inbox = Arrays.asList(new long[]{1, 100}, new long[]{2, 100}, new long[]{3, 90}, new long[]{4, 80});
+        List<long[]> outbox1 = Arrays.asList(new long[]{11, 100}, new long[]{12, 100}, new long[]{13, 80}, new long[]{14, 70});
+        List<long[]> outbox2 = Arrays.asList(new long[]{21, 100}, new long[]{22, 80}, new long[]{23, 80});
+        List<long[]> all = new ArrayList<>();
+        all.addAll(inbox);
+        all.addAll(outbox1);
+        all.addAll(outbox2);
+        for (int count = 1; count <= 4; count++) {
+            List<String> merged = scrollAll(Arrays.asList(inbox, outbox1, outbox2), count);
+            List<String> single = scrollAll(Arrays.asList(all), count);
+            assertEquals(all.size(), merged.size(), "每页" + count + "条");
+            assertEquals(single, merged, "每页" + count + "条");
+        }
+    }
+
+    @Test
+    void duplicatesAreReturnedOnce() {
+        List<long[]> inbox = Arrays.asList(new long[]{1, 100}, new long[]{2, 90});
+        List<long[]> outbox = Arrays.asList(new long[]{2, 90}, new long[]{3, 80});
+        assertEquals(Arrays.asList("1", "2", "3"), scrollAll(Arrays.asList(inbox, outbox), 2));
+    }
+}
@@ -3,7 +3,7 @@ package com.hmdp;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
@@ -22,6 +22,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -33,7 +34,7 @@ class HmDianPingApplicationTests {
         private ShopServiceImpl shopService;
 
         @Resource
-        private RedisIdWorker redisIdWorker;
+        private IdGenerator idGenerator;
 
         @Resource
         private StringRedisTemplate stringRedisTemplate;
@@ -46,8 +47,8 @@ class HmDianPingApplicationTests {
             // 定义任务：每个任务生成100个ID
             Runnable task = ()->{
                 for (int i = 0; i < 100; i++) {
-                    // 使用redisIdWorker生成一个带"order"前缀的ID
-                    long id = redisIdWorker.nextId("order");
+                    // 使用idGenerator生成一个带"order"前缀的ID
+                    long id = idGenerator.nextId("order");
                     System.out.println("id="+id);
                 }
                 // 任务完成后计数器-1
@@ -74,6 +75,27 @@ class HmDianPingApplicationTests {
             }
         }
 
+        /**
+         * 热点key降级（或负责刷新的节点下线）后留下的逻辑过期数据没有TTL，普通查询必须重新加载数据库中的最新值
+         */
+        @Test
+        void testDemotedKeyIsRefreshed() throws InterruptedException {
+            String key = SHOP_KEY + 1;
+            Shop stale = shopService.getById(1L).setName("过期的店名");
+            cacheClient.setWithLogicalExpire(key, stale, 1L, TimeUnit.SECONDS);
+            stringRedisTemplate.delete(CACHE_STALE_PREFIX + key);
+            Thread.sleep(1100);
+
+            Shop shop = cacheClient.handCacheAdaptive(SHOP_KEY, 1L, Shop.class, LOCK_SHOP_KEY,
+                    shopService::getById, SHOP_TTL, TimeUnit.MINUTES);
+            assertNotEquals("过期的店名", shop.getName());
+            // 已经重新写成带TTL的普通数据，之后的查询直接命中新值
+            assertTrue(stringRedisTemplate.getExpire(key) > 0);
+            Shop cached = cacheClient.handCachePenetrationByBlankValue(SHOP_KEY, 1L, Shop.class,
+                    id -> { throw new IllegalStateException("不应再查询数据库"); }, SHOP_TTL, TimeUnit.MINUTES);
+            assertEquals(shop.getName(), cached.getName());
+        }
+
         @Test
         void loadShopData(){
 //            1.查询店铺信息
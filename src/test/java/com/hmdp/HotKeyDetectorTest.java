@@ -0,0 +1,38 @@
+package com.hmdp;
+
+import com.hmdp.utils.HotKeyDetector;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 热点key探测：访问次数估算与窗口滑动
+ */
+public class HotKeyDetectorTest {
+
+    @Test
+    void testEstimate() {
+        HotKeyDetector detector = new HotKeyDetector(6, 10_000);
+        for (int i = 0; i < 500; i++) {
+            detector.record("shop:1");
+        }
+        for (long id = 2; id < 5000; id++) {
+            detector.record("shop:" + id);
+        }
+        // Count-Min Sketch只会多估不会少估，冷key的误差很小
+        assertTrue(detector.estimate("shop:1") >= 500);
+        assertTrue(detector.estimate("shop:2") < 50);
+    }
+
+    @Test
+    void testWindowSlides() throws InterruptedException {
+        HotKeyDetector detector = new HotKeyDetector(3, 50);
+        for (int i = 0; i < 100; i++) {
+            detector.record("shop:1");
+        }
+        assertTrue(detector.estimate("shop:1") >= 100);
+        // 超过整个窗口（3片 x 50ms）后计数滑出窗口
+        Thread.sleep(300);
+        assertEquals(0, detector.estimate("shop:1"));
+    }
+}
@@ -0,0 +1,31 @@
+package com.hmdp;
+
+import com.hmdp.utils.CacheStats;
+import com.hmdp.utils.NegativeCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 负缓存：空值有效期随同一key确认不存在的次数翻倍增长，不超过最大有效期（未达到区间扫描阈值时不访问Redis）
+ */
+public class NegativeCacheTest {
+
+    @Test
+    void testAdaptiveTtl() {
+        NegativeCache negativeCache = new NegativeCache(null, new CacheStats(), 120, 3600, 8);
+        assertEquals(120, negativeCache.onMiss("shop:1", 1L));
+        assertEquals(240, negativeCache.onMiss("shop:1", 1L));
+        assertEquals(480, negativeCache.onMiss("shop:1", 1L));
+        // 其他key从基础有效期开始
+        assertEquals(120, negativeCache.onMiss("shop:100", 100L));
+        for (int i = 0; i < 10; i++) {
+            negativeCache.onMiss("shop:1", 1L);
+        }
+        assertEquals(3600, negativeCache.onMiss("shop:1", 1L));
+
+        // 收到失效消息（数据被新增或修改）后重新计数
+        negativeCache.invalidateLocal("shop:1");
+        assertEquals(120, negativeCache.onMiss("shop:1", 1L));
+    }
+}
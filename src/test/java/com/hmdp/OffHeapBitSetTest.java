@@ -0,0 +1,26 @@
+package com.hmdp;
+
+import com.hmdp.utils.OffHeapBitSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 堆外位图：位的排列与Redis的SETBIT一致
+ */
+public class OffHeapBitSetTest {
+
+    @Test
+    void testRedisLayout() {
+        // SETBIT key 0 1 / SETBIT key 9 1 之后 GET key 的结果为 0x80 0x40
+        OffHeapBitSet bitSet = new OffHeapBitSet(100);
+        bitSet.load(new byte[]{(byte) 0x80, 0x40});
+        assertTrue(bitSet.get(0));
+        assertTrue(bitSet.get(9));
+        assertFalse(bitSet.get(1));
+        assertFalse(bitSet.get(99));
+
+        bitSet.set(99);
+        assertTrue(bitSet.get(99));
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp;
+
+import com.hmdp.mapper.OrderOutboxMapper;
+import com.hmdp.utils.JdbcOutboxOrderQueue;
+import com.hmdp.utils.RedisStreamOrderQueue;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+
+/**
+ * Redis Stream与数据库发件箱订单队列的基准测试（需要Redis和MySQL 8.0，发件箱表见db/tb_order_outbox.sql）
+ * 处理逻辑只记录延迟、不创建订单，测量的是队列本身的开销；Redis Stream使用单独的stream.orders.bench，测试结束后删除
+ * 运行时保持 hmdp.seckill.queue = redis（默认），否则应用自己的发件箱消费线程也会处理测试写入的订单
+ */
+@SpringBootTest
+public class OrderQueueBackendBenchmarkTest {
+
+    private static final String BENCH_STREAM = "stream.orders.bench";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void testRedisStreamQueue() throws InterruptedException {
+        stringRedisTemplate.delete(BENCH_STREAM);
+        try {
+            OrderQueueBenchmarkTest.run("redis", new RedisStreamOrderQueue(stringRedisTemplate, BENCH_STREAM, 4, 50, 5, 1000, 30000), 8, 5000);
+        } finally {
+            stringRedisTemplate.delete(BENCH_STREAM);
+        }
+    }
+
+    @Test
+    void testOutboxQueue() throws InterruptedException {
+        OrderQueueBenchmarkTest.run("outbox", new JdbcOutboxOrderQueue(orderOutboxMapper, transactionTemplate, 4, 50, 5, 1000), 8, 2000);
+    }
+}
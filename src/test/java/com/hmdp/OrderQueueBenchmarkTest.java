@@ -0,0 +1,147 @@
+package com.hmdp;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.MemoryOrderQueue;
+import com.hmdp.utils.OrderQueue;
+import com.hmdp.utils.RingBuffer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 订单队列基准测试：吞吐量（订单/秒）与 入队 -> 交给处理逻辑 的延迟分位数
+ * 这里测试进程内的环形缓冲区，不依赖Redis和数据库，可以直接运行；
+ * Redis Stream与数据库发件箱的基准测试见OrderQueueBackendBenchmarkTest（需要Redis和MySQL），使用同一个run方法，结果可以直接对比
+ */
+@Slf4j
+public class OrderQueueBenchmarkTest {
+
+    private static final int PRODUCERS = 8;
+
+    /**
+     * 多个生产者并发写入，消费者按序号顺序取出：不丢、不重，每个生产者写入的元素保持先后顺序
+     */
+    @Test
+    void testRingBufferMultiProducer() throws InterruptedException {
+        int perProducer = 200000;
+        RingBuffer<long[]> ring = new RingBuffer<>(1024);
+        ExecutorService pool = Executors.newFixedThreadPool(PRODUCERS);
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            pool.submit(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    ring.put(new long[]{producer, i});
+                }
+            });
+        }
+        long[] next = new long[PRODUCERS];
+        List<long[]> batch = new ArrayList<>();
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received < PRODUCERS * perProducer && System.currentTimeMillis() < deadline) {
+            batch.clear();
+            ring.drainTo(batch, 256);
+            for (long[] e : batch) {
+                assertEquals(next[(int) e[0]]++, e[1]);
+            }
+            received += batch.size();
+        }
+        pool.shutdown();
+        assertEquals(PRODUCERS * perProducer, received);
+        assertEquals(0, ring.size());
+        // 缓冲区已满时offer失败，不会覆盖未取出的元素
+        RingBuffer<Integer> small = new RingBuffer<>(4);
+        for (int i = 0; i < small.capacity(); i++) {
+            assertTrue(small.offer(i));
+        }
+        assertFalse(small.offer(-1));
+        // 带超时的offer在缓冲区一直满时按时返回false，不会一直阻塞
+        long begin = System.nanoTime();
+        assertFalse(small.offer(-1, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    /**
+     * 队列停止后写入订单立即失败，不会让请求线程一直阻塞
+     */
+    @Test
+    void testMemoryQueuePublishAfterStop() {
+        MemoryOrderQueue queue = new MemoryOrderQueue(1, 4, 50, 5, 1000);
+        queue.start(new OrderQueue.Handler() {
+            @Override
+            public void handleBatch(List<VoucherOrder> orders) {
+            }
+
+            @Override
+            public void handle(VoucherOrder order) {
+            }
+        });
+        queue.stop();
+        assertThrows(IllegalStateException.class,
+                () -> queue.publish(new VoucherOrder().setId(1L).setUserId(1L).setVoucherId(1L)));
+    }
+
+    @Test
+    void testMemoryQueue() throws InterruptedException {
+        MemoryOrderQueue queue = new MemoryOrderQueue(4, 65536, 50, 5, 1000);
+        run("memory", queue, PRODUCERS, 100000);
+    }
+
+    /**
+     * 启动队列，PRODUCERS个线程各写入perProducer个订单（订单id为0..n-1，分布在16张优惠券上），
+     * 等待全部交给处理逻辑后输出吞吐量和延迟分位数
+     */
+    static void run(String name, OrderQueue queue, int producers, int perProducer) throws InterruptedException {
+        int n = producers * perProducer;
+        long[] sentAt = new long[n];
+        long[] latency = new long[n];
+        CountDownLatch done = new CountDownLatch(n);
+        queue.start(new OrderQueue.Handler() {
+            @Override
+            public void handleBatch(List<VoucherOrder> orders) {
+                long now = System.nanoTime();
+                for (VoucherOrder order : orders) {
+                    int id = order.getId().intValue();
+                    latency[id] = now - sentAt[id];
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void handle(VoucherOrder order) {
+                handleBatch(Collections.singletonList(order));
+            }
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        long begin = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            int from = p * perProducer;
+            pool.submit(() -> {
+                for (int id = from; id < from + perProducer; id++) {
+                    sentAt[id] = System.nanoTime();
+                    queue.publish(new VoucherOrder().setId((long) id).setUserId((long) id).setVoucherId((long) (id % 16)));
+                }
+            });
+        }
+        boolean finished = done.await(120, TimeUnit.SECONDS);
+        long cost = System.nanoTime() - begin;
+        pool.shutdown();
+        queue.stop();
+        assertTrue(finished, name + "：订单没有在120秒内处理完，剩余" + done.getCount());
+
+        Arrays.sort(latency);
+        log.info("{} 订单数: {} 吞吐量: {} 订单/秒 延迟: p50={}us p99={}us p999={}us max={}us", name, n,
+                n * 1_000_000_000L / cost, latency[n / 2] / 1000, latency[(int) (n * 0.99)] / 1000,
+                latency[(int) (n * 0.999)] / 1000, latency[n - 1] / 1000);
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 号段模式全局ID生成器测试：用内存中的计数器代替Redis的INCRBY
+ * 不依赖Redis和数据库，可以直接运行
+ */
+@Slf4j
+public class RedisIdWorkerTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 100000;
+
+    /**
+     * 模拟Redis：每个key一个计数器，记录INCRBY的次数
+     */
+    private static class MemorySource implements RedisIdWorker.SequenceSource {
+        private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public long incrementBy(String key, long delta) {
+            calls.incrementAndGet();
+            return counters.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta);
+        }
+    }
+
+    @Test
+    void segmentIdsAreUnique() throws InterruptedException {
+        MemorySource source = new MemorySource();
+        RedisIdWorker worker = new RedisIdWorker(source, 1000);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    ids.add(worker.nextId("order"));
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        assertEquals(THREADS * PER_THREAD, ids.size());
+        // 每1000个ID大约访问一次"Redis"（多个线程同时用完号段、预取还没完成时会多领几个号段）
+        int calls = source.calls.get();
+        log.info("生成{}个ID，INCRBY次数：{}", ids.size(), calls);
+        assertTrue(calls <= THREADS * PER_THREAD / 1000 * 11 / 10, "INCRBY次数过多：" + calls);
+    }
+
+    @Test
+    void sameLayoutAsIncr() {
+        RedisIdWorker segment = new RedisIdWorker(new MemorySource(), 1000);
+        RedisIdWorker incr = new RedisIdWorker(new MemorySource(), 1);
+        long a = segment.nextId("order");
+        long b = incr.nextId("order");
+        // 高31位是时间戳（秒），低32位是当天的序列号，两种模式的第一个序列号都是1
+        assertTrue(Math.abs((a >>> 32) - (b >>> 32)) <= 1);
+        assertEquals(1, a & 0xFFFFFFFFL);
+        assertEquals(1, b & 0xFFFFFFFFL);
+    }
+
+    @Test
+    void benchmark() {
+        RedisIdWorker worker = new RedisIdWorker(new MemorySource(), 1000);
+        for (int i = 0; i < PER_THREAD; i++) {
+            worker.nextId("order");
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < PER_THREAD * 10; i++) {
+            sum += worker.nextId("order");
+        }
+        long cost = System.nanoTime() - begin;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        log.info("号段模式 nextId: {} ns/op, 分配内存: {} B/op ({})", cost / (PER_THREAD * 10),
+                allocated / (PER_THREAD * 10), sum != 0);
+    }
+}
@@ -0,0 +1,70 @@
+package com.hmdp;
+
+import com.hmdp.utils.SnowflakeIdGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 雪花算法ID生成器测试：使用固定的workerId，不依赖Redis和数据库，可以直接运行
+ */
+@Slf4j
+public class SnowflakeIdGeneratorTest {
+
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 100000;
+
+    @Test
+    void idsAreUnique() throws InterruptedException {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(3);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    ids.add(generator.nextId("order"));
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        assertEquals(THREADS * PER_THREAD, ids.size());
+    }
+
+    @Test
+    void layout() {
+        long id = new SnowflakeIdGenerator(5).nextId("order");
+        // 低32位：标记位1 | workerId | 序列号，时间戳与RedisIdWorker相同
+        assertEquals(1, (id >>> 31) & 1);
+        assertEquals(5, (id >>> 22) & 0x1FF);
+        assertTrue(id > 0);
+        // 不同workerId生成的ID不重复
+        assertNotEquals(id, new SnowflakeIdGenerator(6).nextId("order"));
+    }
+
+    @Test
+    void benchmark() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        for (int i = 0; i < PER_THREAD; i++) {
+            generator.nextId("order");
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < PER_THREAD * 10; i++) {
+            sum += generator.nextId("order");
+        }
+        long cost = System.nanoTime() - begin;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        log.info("雪花算法 nextId: {} ns/op, 分配内存: {} B/op ({})", cost / (PER_THREAD * 10),
+                allocated / (PER_THREAD * 10), sum != 0);
+    }
+}